@@ -6,6 +6,9 @@ public class Building {
     protected String address;
     protected int nFloors;
     protected int activeFloor = -1; // Default value indicating we are not inside this building
+    protected final BuildingStats stats = new BuildingStats(); // Operation counters, exposed over JMX by CampusMap
+    protected FloorAccessPolicy policy; // Who may reach which floor; subclasses install their own in their constructors
+    protected CampusTotals totals; // Running totals of the CampusMap this building is on, or null
     // a protected instance method in the super-class can be made public, but not private, in the subclass. 
 
     /* Default constructor */
@@ -32,6 +35,7 @@ public class Building {
             throw new RuntimeException("Cannot construct a building with fewer than 1 floor.");
         }
         this.nFloors = nFloors;
+        this.policy = FloorAccessPolicy.open(nFloors, false);
     }
 
     /* Accessors */
@@ -47,37 +51,108 @@ public class Building {
         return this.nFloors;
     }
 
-    /* Navigation methods */
+    public BuildingStats getStats() {
+        return this.stats;
+    }
+
+    public FloorAccessPolicy getAccessPolicy() {
+        return this.policy;
+    }
+
+    /* Adds this building's contribution to each campus total (see CampusTotals.Metric).
+     * Subclasses add their own quantities and call super.tally(). */
+    protected void tally(long[] counts) {
+        counts[CampusTotals.Metric.BUILDINGS.ordinal()] += 1;
+    }
+
+    /* Reports a change to the running totals of the map this building is on, if any */
+    protected void count(CampusTotals.Metric metric, long delta) {
+        if (this.totals != null) {
+            this.totals.add(metric, delta);
+        }
+    }
+
+    /* Called by CampusMap when the building is added to (or removed from) a map. A building
+     * is on at most one map, so attaching a building that already reports to some map's totals
+     * is refused. Both run under this building's lock, so a count() from a synchronized
+     * subclass method (e.g. House.addResident()) is never lost or counted twice. */
+    synchronized void attachTotals(CampusTotals totals) {
+        if (this.totals != null) {
+            throw new RuntimeException(this.getName() + " is already on " + (this.totals == totals ? "this" : "another")
+                                       + " map. It was not added.");
+        }
+        long[] counts = new long[CampusTotals.N_METRICS];
+        this.tally(counts);
+        totals.addAll(counts, 1);
+        this.totals = totals;
+    }
+
+    /* Only takes the building off the given totals, so a map can never subtract a building
+     * that reports to another map */
+    synchronized void detachTotals(CampusTotals totals) {
+        if (this.totals == totals) {
+            long[] counts = new long[CampusTotals.N_METRICS];
+            this.tally(counts);
+            this.totals.addAll(counts, -1);
+            this.totals = null;
+        }
+    }
+
+    /* Navigation methods. These are timed as a whole, printing included; the try* methods below
+     * are only counted, since two clock reads would cost far more than the move itself. */
     public Building enter() {
-        if (activeFloor != -1) {
-            throw new RuntimeException("You are already inside this Building.");
+        long start = stats.start();
+        NavStatus status = this.stepIn();
+        if (status != NavStatus.OK) {
+            throw navigationError(status);
         }
-        this.activeFloor = 1;
         System.out.println("You are now inside " + this.name + " on the ground floor.");
+        stats.record(BuildingStats.Operation.ENTER, start);
         return this; // Return a pointer to the current building
     }
 
     public Building exit() {
-        if (this.activeFloor == -1) {
+        long start = stats.start();
+        NavStatus status = this.stepOut();
+        if (status == NavStatus.NOT_INSIDE) {
             throw new RuntimeException("You are not inside this Building. Must call enter() before exit().");
         }
-        if (this.activeFloor > 1) {
-            throw new RuntimeException("You have fallen out a window from floor #" +this.activeFloor + "!");
+        if (status != NavStatus.OK) {
+            throw navigationError(status);
         }
         System.out.println("You have left " + this.name + ".");
-        this.activeFloor = -1; // We're leaving the building, so we no longer have a valid active floor
+        stats.record(BuildingStats.Operation.EXIT, start);
         return null; // We're outside now, so the building is null
     }
  
     public void goToFloor(int floorNum) {
-        if (this.activeFloor == -1) {
-            throw new RuntimeException("You are not inside this Building. Must call enter() before navigating between floors.");
+        long start = stats.start();
+        NavStatus status = this.tryMove(floorNum, false, FloorAccessPolicy.ANY_ROLE);
+        if (status != NavStatus.OK) {
+            throw navigationError(status);
         }
-        if (floorNum < 1 || floorNum > this.nFloors) {
-            throw new RuntimeException("Invalid floor number. Valid range for this Building is 1-" + this.nFloors +".");
+        this.printFloor(floorNum);
+        stats.record(BuildingStats.Operation.GO_TO_FLOOR, start);
+    }
+
+    /* Overloaded goToFloor for buildings with an elevator. As it always has, this overload only
+     * requires the building to have an elevator; the value of the flag is not checked. */
+    public void goToFloor(int floorNum, boolean elevator) {
+        long start = stats.start();
+        NavStatus status = this.tryMove(floorNum, true, FloorAccessPolicy.ANY_ROLE);
+        if (status != NavStatus.OK) {
+            throw navigationError(status);
+        }
+        this.printFloor(floorNum);
+        stats.record(BuildingStats.Operation.GO_TO_FLOOR, start);
+    }
+
+    private void printFloor(int floorNum) {
+        if (policy.allows(floorNum, FloorAccessPolicy.Role.VISITOR)) {
+            System.out.println("You are now on floor #" + floorNum + " of " + this.name);
+        } else {
+            System.out.println("You are now on floor #" + floorNum + " of " + this.name + ". It is employees only!");
         }
-        System.out.println("You are now on floor #" + floorNum + " of " + this.name);
-        this.activeFloor = floorNum;
     }
 
     public void goUp() {
@@ -88,6 +163,99 @@ public class Building {
         this.goToFloor(this.activeFloor - 1);
     }
 
+    /* Non-throwing navigation methods: these print nothing, and on failure they leave the
+     * building unchanged and return a status instead of building an exception. */
+    public NavStatus tryEnter() {
+        return counted(this.stepIn(), BuildingStats.Operation.ENTER);
+    }
+
+    public NavStatus tryExit() {
+        return counted(this.stepOut(), BuildingStats.Operation.EXIT);
+    }
+
+    public NavStatus tryGoToFloor(int floorNum) {
+        return counted(this.tryMove(floorNum, false, FloorAccessPolicy.ANY_ROLE), BuildingStats.Operation.GO_TO_FLOOR);
+    }
+
+    /* Like goToFloor(n, b): needs an elevator, whatever the flag says */
+    public NavStatus tryGoToFloor(int floorNum, boolean elevator) {
+        return counted(this.tryMove(floorNum, true, FloorAccessPolicy.ANY_ROLE), BuildingStats.Operation.GO_TO_FLOOR);
+    }
+
+    /* Role-aware move: takes the elevator if there is one, and refuses floors the role may not visit */
+    public NavStatus tryGoToFloor(int floorNum, FloorAccessPolicy.Role role) {
+        return counted(this.tryMove(floorNum, policy.hasElevator(), role.bit()), BuildingStats.Operation.GO_TO_FLOOR);
+    }
+
+    /* Counts a successful non-throwing move; failures are not counted, so they stay cheap */
+    private NavStatus counted(NavStatus status, BuildingStats.Operation operation) {
+        if (status == NavStatus.OK) {
+            stats.increment(operation);
+        }
+        return status;
+    }
+
+    /* The moves themselves, shared by the throwing and non-throwing methods and not instrumented */
+    private NavStatus stepIn() {
+        if (activeFloor != -1) {
+            return NavStatus.ALREADY_INSIDE;
+        }
+        this.activeFloor = 1;
+        return NavStatus.OK;
+    }
+
+    private NavStatus stepOut() {
+        if (this.activeFloor == -1) {
+            return NavStatus.NOT_INSIDE;
+        }
+        if (this.activeFloor > 1) {
+            return NavStatus.FELL_OUT_WINDOW;
+        }
+        this.activeFloor = -1; // We're leaving the building, so we no longer have a valid active floor
+        return NavStatus.OK;
+    }
+
+    /* Every floor change goes through here; the rules themselves live in the policy table */
+    private NavStatus tryMove(int floorNum, boolean elevator, int roles) {
+        NavStatus status = policy.check(this.activeFloor, floorNum, elevator, roles);
+        if (status != NavStatus.OK) {
+            return status;
+        }
+        this.activeFloor = floorNum;
+        return NavStatus.OK;
+    }
+
+    public NavStatus tryGoUp() {
+        return this.tryGoToFloor(this.activeFloor + 1);
+    }
+
+    public NavStatus tryGoDown() {
+        return this.tryGoToFloor(this.activeFloor - 1);
+    }
+
+    /* Builds the exception thrown by the navigation methods for a failed status. Only called on
+     * the throwing path, so the try* methods never pay for the message. */
+    protected RuntimeException navigationError(NavStatus status) {
+        switch (status) {
+            case ALREADY_INSIDE:
+                return new RuntimeException("You are already inside this Building.");
+            case NOT_INSIDE:
+                return new RuntimeException("You are not inside this Building. Must call enter() before navigating between floors.");
+            case INVALID_FLOOR:
+                return new RuntimeException("Invalid floor number. Valid range for this Building is 1-" + this.nFloors +".");
+            case FELL_OUT_WINDOW:
+                return new RuntimeException("You have fallen out a window from floor #" +this.activeFloor + "!");
+            case HAS_ELEVATOR:
+                return new RuntimeException("Invalid call to goToFloor. " + this.name + " has an elevator, you must provide parameter. ");
+            case NO_ELEVATOR:
+                return new RuntimeException("Invalid parameter, " + this.name + " does not have an elevator.");
+            case ACCESS_DENIED:
+                return new RuntimeException("You are not allowed on that floor of " + this.name + ".");
+            default:
+                return new RuntimeException("Unexpected navigation status " + status + ".");
+        }
+    }
+
     public void showOptions() {
         System.out.println("Available options at " + this.name + ":\n + enter() \n + exit() \n + goUp() \n + goDown()\n + goToFloor(n)");
     }
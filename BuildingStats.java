@@ -0,0 +1,206 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Per-operation counters and latency histograms for one Building. Each Building owns one of
+ * these and brackets its interesting methods with start()/record(). Stats for an operation are
+ * created the first time it is recorded, so buildings that never sell coffee don't pay for a
+ * sellCoffee() histogram.
+ *
+ * Recording can be switched off for every Building at once with setEnabled(false), or from the
+ * command line with -Dcampus.stats.disabled=true.
+ */
+public class BuildingStats implements BuildingStatsMBean {
+
+    /** The operations that are instrumented */
+    public enum Operation {
+        ENTER, EXIT, GO_TO_FLOOR, SELL_COFFEE, RESTOCK, CHECK_OUT, RETURN_BOOK, MOVE_IN, MOVE_OUT
+    }
+
+    /** Global on/off switch shared by all buildings */
+    private static volatile boolean enabled = !Boolean.getBoolean("campus.stats.disabled");
+
+    /** Source of instance ids */
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    /** Unique id of this instance, so buildings with the same name get distinct MBean names */
+    private final long id = NEXT_ID.incrementAndGet();
+
+    /** Stats for each operation, indexed by ordinal; null until the operation is first recorded */
+    private final OperationStats[] operations = new OperationStats[Operation.values().length];
+
+    /** Accessor for the instance id
+     * @return an id that no other BuildingStats in this JVM has
+     */
+    long getId() {
+        return id;
+    }
+
+    /** Starts timing an operation
+     * @return a timestamp to pass to record(), or 0 if recording is disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Records one call of an operation that started at the given timestamp
+     * @param operation the operation that finished
+     * @param startNanos the value returned by start()
+     */
+    public void record(Operation operation, long startNanos) {
+        if (!enabled || startNanos == 0) {
+            return; // disabled now, or was disabled when the operation started
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        statsFor(operation).record(elapsed);
+    }
+
+    /** Counts one call of an operation without timing it
+     * @param operation the operation that finished
+     */
+    public void increment(Operation operation) {
+        if (enabled) {
+            statsFor(operation).increment();
+        }
+    }
+
+    /** Accessor for the stats of one operation, creating them on first use
+     * @param operation the operation to look up
+     * @return the stats for the operation
+     */
+    OperationStats statsFor(Operation operation) {
+        OperationStats stats = operations[operation.ordinal()];
+        if (stats == null) {
+            stats = createStats(operation);
+        }
+        return stats;
+    }
+
+    /** Creates the stats for an operation exactly once, even if several threads race here
+     * @param operation the operation to create stats for
+     * @return the (possibly already existing) stats
+     */
+    private synchronized OperationStats createStats(Operation operation) {
+        OperationStats stats = operations[operation.ordinal()];
+        if (stats == null) {
+            stats = new OperationStats();
+            operations[operation.ordinal()] = stats;
+        }
+        return stats;
+    }
+
+    /** Adds this building's histogram for an operation into an existing histogram
+     * @param operation the operation to read
+     * @param histogram an array of length OperationStats.N_BUCKETS to add into
+     */
+    void addHistogram(Operation operation, long[] histogram) {
+        OperationStats stats = operations[operation.ordinal()];
+        if (stats != null) {
+            stats.addTo(histogram);
+        }
+    }
+
+    /** Accessor for the total latency recorded for an operation
+     * @param operation the operation to read
+     * @return sum of all samples in nanoseconds
+     */
+    long totalNanos(Operation operation) {
+        OperationStats stats = operations[operation.ordinal()];
+        return stats == null ? 0 : stats.getTotalNanos();
+    }
+
+    /** Accessor for the number of times an operation was recorded
+     * @param operation the operation to read
+     * @return number of calls, timed or not
+     */
+    long count(Operation operation) {
+        OperationStats stats = operations[operation.ordinal()];
+        return stats == null ? 0 : stats.getCount();
+    }
+
+    /** Accessor for the number of timed calls of an operation
+     * @param operation the operation to read
+     * @return number of latency samples
+     */
+    long timedCount(Operation operation) {
+        OperationStats stats = operations[operation.ordinal()];
+        return stats == null ? 0 : stats.getTimedCount();
+    }
+
+    /** Checks whether recording is switched on
+     * @return true if operations are being recorded
+     */
+    public static boolean isRecording() {
+        return enabled;
+    }
+
+    /** Switches recording on or off for every Building
+     * @param on true to record operations
+     */
+    public static void setRecording(boolean on) {
+        enabled = on;
+    }
+
+    /** Converts a JMX operation name into an Operation
+     * @param name the name of an Operation constant, in any case
+     * @return the matching Operation
+     */
+    static Operation operationNamed(String name) {
+        try {
+            return Operation.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Unknown operation " + name + ".");
+        }
+    }
+
+    /** @return the names of all Operation constants */
+    static String[] operationNames() {
+        Operation[] all = Operation.values();
+        String[] names = new String[all.length];
+        for (int i = 0; i < all.length; i++) {
+            names[i] = all[i].name();
+        }
+        return names;
+    }
+
+    /* BuildingStatsMBean implementation */
+
+    public boolean isEnabled() {
+        return isRecording();
+    }
+
+    public void setEnabled(boolean enabled) {
+        setRecording(enabled);
+    }
+
+    public String[] getOperations() {
+        return operationNames();
+    }
+
+    public long getCount(String operation) {
+        return count(operationNamed(operation));
+    }
+
+    public long getMeanNanos(String operation) {
+        Operation op = operationNamed(operation);
+        long n = timedCount(op);
+        return n == 0 ? 0 : totalNanos(op) / n;
+    }
+
+    public long getPercentileNanos(String operation, double percentile) {
+        return OperationStats.percentileOf(getHistogram(operation), percentile);
+    }
+
+    public long[] getHistogram(String operation) {
+        long[] histogram = new long[OperationStats.N_BUCKETS];
+        addHistogram(operationNamed(operation), histogram);
+        return histogram;
+    }
+
+    public synchronized void reset() {
+        for (OperationStats stats : operations) {
+            if (stats != null) {
+                stats.reset();
+            }
+        }
+    }
+
+}
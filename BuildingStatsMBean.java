@@ -0,0 +1,42 @@
+/** Management interface for the per-operation counters of a Building (or of a whole CampusMap).
+ * Operation names are the names of BuildingStats.Operation constants, e.g. "ENTER" or "CHECK_OUT".
+ */
+public interface BuildingStatsMBean {
+
+    /** @return true if operations are currently being recorded (this switch is shared by every Building) */
+    boolean isEnabled();
+
+    /** Turns recording on or off for every Building
+     * @param enabled true to record operations, false to skip all instrumentation
+     */
+    void setEnabled(boolean enabled);
+
+    /** @return the names of all operations that can be queried */
+    String[] getOperations();
+
+    /** @param operation name of the operation
+     * @return number of times the operation has been recorded, including calls that were
+     * counted without being timed (the non-throwing navigation methods)
+     */
+    long getCount(String operation);
+
+    /** @param operation name of the operation
+     * @return mean latency of the timed calls of the operation in nanoseconds, or 0 if none were timed
+     */
+    long getMeanNanos(String operation);
+
+    /** @param operation name of the operation
+     * @param percentile a value between 0 and 100, e.g. 99.0
+     * @return latency in nanoseconds below which that percentage of calls completed
+     */
+    long getPercentileNanos(String operation, double percentile);
+
+    /** @param operation name of the operation
+     * @return raw latency histogram of the operation
+     */
+    long[] getHistogram(String operation);
+
+    /** Clears every counter */
+    void reset();
+
+}
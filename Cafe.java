@@ -33,10 +33,35 @@ public class Cafe extends Building{
         nSugarPackets = 300;
         nCreams = 100;
         nCups =  400;
+        //Floors above the ground floor are storage, open to employees only
+        this.policy = FloorAccessPolicy.staffOnlyAbove(nFloors, 1, false);
         System.out.println("You have built a cafe: ☕");
     }
 
 
+    /** Constructor for a cafe whose inventory is already known, e.g. one loaded by CampusSnapshot.
+     * Prints nothing.
+     * @param name the name of the cafe
+     * @param address the address at which the cafe is located
+     * @param nFloors the number of floors the cafe has
+     * @param inventory coffee ounces, sugar packets, creams and cups in stock, in that order
+     */
+    Cafe(String name, String address, int nFloors, int[] inventory){
+        super(name, address, nFloors);
+        nCoffeeOunces = inventory[0];
+        nSugarPackets = inventory[1];
+        nCreams = inventory[2];
+        nCups = inventory[3];
+        this.policy = FloorAccessPolicy.staffOnlyAbove(nFloors, 1, false);
+    }
+
+    /** Accessor for the inventory, used by CampusSnapshot to save it
+     * @return coffee ounces, sugar packets, creams and cups in stock, in that order
+     */
+    int[] getInventory(){
+        return new int[] {nCoffeeOunces, nSugarPackets, nCreams, nCups};
+    }
+
     /** Constructor that sets values to class fields and calls Building superclass
      * constructor to assign name, address, and nFloors coffee ounces, sugar packets
      * creams and cup fields to the Cafe object.
@@ -53,6 +78,7 @@ public class Cafe extends Building{
             throw new RuntimeException("Cannot construct a building with fewer than 1 floor.");
         }
         this.nFloors = nFloors;
+        this.policy = FloorAccessPolicy.staffOnlyAbove(nFloors, 1, false);
         System.out.println("You have built a cafe: ☕");
     }
 
@@ -63,6 +89,7 @@ public class Cafe extends Building{
      * @param nCreams number of servings of cream in order
      */
     public void sellCoffee(int size, int nSugarPackets, int nCreams){
+        long start = stats.start();
         /* If size, nSugarPackets, or nCreams are greater than what is stored in backstock, call restock method
         and pass 20 as arguments for each field*/
         if(size > nCoffeeOunces || nSugarPackets > this.nSugarPackets || nCreams > this.nCreams){
@@ -72,6 +99,11 @@ public class Cafe extends Building{
         this.nSugarPackets -= nSugarPackets;
         this.nCreams -= nCreams;
         nCups -= 1;
+        count(CampusTotals.Metric.COFFEE_OUNCES, -size);
+        count(CampusTotals.Metric.SUGAR_PACKETS, -nSugarPackets);
+        count(CampusTotals.Metric.CREAMS, -nCreams);
+        count(CampusTotals.Metric.CUPS, -1);
+        stats.record(BuildingStats.Operation.SELL_COFFEE, start);
     }
 
     @Override
@@ -79,34 +111,9 @@ public class Cafe extends Building{
       System.out.println("Available options at " + this.name + ":\n + enter() \n + exit() \n + goUp() \n + goDown() \n + goToFloor(n) \n + sellCoffee(n, n, n, n) \n + restock(n, n, n, n) \n");
     }
      
-    @Override
-    public void goToFloor(int floorNum) {
-        if (this.activeFloor == -1) {
-          throw new RuntimeException("You are not inside this Building. Must call enter() before navigating between floors.");
-        }
-        if (floorNum < 1 || floorNum > this.nFloors) {
-          throw new RuntimeException("Invalid floor number. Valid range for this Building is 1-" + this.nFloors +".");
-        }
-        if (floorNum != 1){
-            System.out.println("You are now on floor #" + floorNum + " of " + this.name +". It is employees only!");
-        }
-        else{
-            System.out.println("You are now on floor #" + floorNum + " of " + this.name+"." );
-        }
-        this.activeFloor = floorNum;
-      } 
-    
-      public void goUp() {
-        this.goToFloor(this.activeFloor + 1);
-      }
-    
-      public void goDown() {
-        this.goToFloor(this.activeFloor - 1);
-      }
-    
-      public String toString() {
+    public String toString() {
         return this.name + " is a " + this.nFloors + "-story building located at " + this.address + ".";
-      }
+    }
 
     /** Increases the value stored in each class field to "restock" inventory
      * @param nCoffeeOunces number of ounces of coffee to add to inventory
@@ -115,10 +122,25 @@ public class Cafe extends Building{
      * @param nCups number of cups to add to inventory
      */
     private void restock(int nCoffeeOunces, int nSugarPackets, int nCreams, int nCups){
+        long start = stats.start();
         this.nCoffeeOunces += nCoffeeOunces;
         this.nSugarPackets += nSugarPackets;
         this.nCreams += nCreams;
         this.nCups += nCups;
+        count(CampusTotals.Metric.COFFEE_OUNCES, nCoffeeOunces);
+        count(CampusTotals.Metric.SUGAR_PACKETS, nSugarPackets);
+        count(CampusTotals.Metric.CREAMS, nCreams);
+        count(CampusTotals.Metric.CUPS, nCups);
+        stats.record(BuildingStats.Operation.RESTOCK, start);
+    }
+
+    @Override
+    protected void tally(long[] counts) {
+        super.tally(counts);
+        counts[CampusTotals.Metric.COFFEE_OUNCES.ordinal()] += nCoffeeOunces;
+        counts[CampusTotals.Metric.SUGAR_PACKETS.ordinal()] += nSugarPackets;
+        counts[CampusTotals.Metric.CREAMS.ordinal()] += nCreams;
+        counts[CampusTotals.Metric.CUPS.ordinal()] += nCups;
     }
 
     /** Displays the value of each element left in inventory */
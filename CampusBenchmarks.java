@@ -0,0 +1,64 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/** Setup shared by the benchmarks in CampusTotals.main(), CampusSnapshot.main() and
+ * FederatedCatalog.main(), so they measure the same campus and don't each repeat it.
+ */
+final class CampusBenchmarks {
+
+    private CampusBenchmarks() {
+    }
+
+    /** Turns off operation stats and silences System.out, since the constructors and
+     * addBuilding() print a line each
+     * @return the real System.out, for printing results and for restoring it afterwards
+     */
+    static PrintStream quiet() {
+        BuildingStats.setRecording(false);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return console;
+    }
+
+    /** Builds a sample campus the usual way (public constructors, moveIn(), addTitle() and
+     * addBuilding()), cycling through House, Library, Cafe and Building. Each House has four
+     * residents "Student i-r" in rooms 100 to 103; each Library holds titlesPerLibrary titles
+     * starting at "Title i", the first of them checked out; each Cafe has sold one coffee.
+     * Call quiet() first, or every constructor prints.
+     * @param n the number of buildings
+     * @param titlesPerLibrary the number of titles in each Library
+     * @return the new map
+     */
+    static CampusMap sampleCampus(int n, int titlesPerLibrary) {
+        CampusMap map = new CampusMap();
+        for (int i = 0; i < n; i++) {
+            String address = (i % 100) + " Street " + (i % 7);
+            switch (i % 4) {
+                case 0:
+                    House house = new House("House " + i, address, 3, true, false);
+                    for (int r = 0; r < 4; r++) {
+                        house.moveIn("Student " + i + "-" + r, (100 + r) + "");
+                    }
+                    map.addBuilding(house);
+                    break;
+                case 1:
+                    Library library = new Library("Library " + i, address, 2, false);
+                    for (int t = 0; t < titlesPerLibrary; t++) {
+                        library.addTitle("Title " + (i + t));
+                    }
+                    library.checkOut("Title " + i);
+                    map.addBuilding(library);
+                    break;
+                case 2:
+                    Cafe cafe = new Cafe("Cafe " + i, address, 1);
+                    cafe.sellCoffee(12, 2, 1);
+                    map.addBuilding(cafe);
+                    break;
+                default:
+                    map.addBuilding(new Building("Building " + i, address, 4));
+            }
+        }
+        return map;
+    }
+
+}
@@ -1,8 +1,28 @@
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 public class CampusMap {
 
+    /** JMX domain under which the campus and building stats are registered */
+    public static final String JMX_DOMAIN = "CampusMap";
+
+    private static final AtomicLong NEXT_MAP_ID = new AtomicLong(); // Source of map ids
+
     ArrayList<Building> buildings;
+    private final long mapId = NEXT_MAP_ID.incrementAndGet(); // Keeps the MBean names of different maps apart
+    private final CampusTotals totals = new CampusTotals(); // Running totals, kept up to date by the buildings
+    private final FederatedCatalog catalog = new FederatedCatalog(); // Searches every Library on the map at once
+    private final ResidentDirectory directory = new ResidentDirectory(); // Who lives in which House on the map
+    private boolean mbeansRegistered = false; // true once registerMBeans() has been called
 
     /* Default constructor, initializes empty ArrayList */
     public CampusMap() {
@@ -15,10 +35,53 @@ public class CampusMap {
      */
     public void addBuilding(Building b) {
         System.out.println("Adding building...");
-        buildings.add(b);
+        attach(b);
         System.out.println("-->Successfully added " + b.getName() + " to the map.");
     }
 
+    /**
+     * Adds many Buildings at once without printing, e.g. when CampusSnapshot loads a map
+     * @param loaded the Buildings to add, in map order
+     */
+    synchronized void addBuildings(List<Building> loaded) {
+        buildings.ensureCapacity(buildings.size() + loaded.size());
+        for (Building b : loaded) {
+            attach(b);
+        }
+    }
+
+    /* Puts a Building on the map: its totals, its MBean, its residents if it is a House and its
+     * catalog if it is a Library. A Building is on at most one map, and attaching its totals
+     * claims it, so a Building already on this or another map is rejected before anything
+     * changes. The other steps that can fail come next and are undone on failure, so a failure
+     * leaves the map unchanged. Changes to the building list are made under the map's lock, so
+     * buildingsSnapshot() never sees one half done. */
+    private synchronized void attach(Building b) {
+        b.attachTotals(totals);
+        try {
+            if (mbeansRegistered) {
+                registerMBean(b.getStats(), objectNameFor(b));
+            }
+            if (b instanceof House) {
+                try {
+                    directory.attach((House) b);
+                } catch (RuntimeException e) {
+                    if (mbeansRegistered) {
+                        unregisterMBean(objectNameFor(b));
+                    }
+                    throw e;
+                }
+            }
+        } catch (RuntimeException e) {
+            b.detachTotals(totals);
+            throw e;
+        }
+        buildings.add(b);
+        if (b instanceof Library) {
+            catalog.addLibrary((Library) b);
+        }
+    }
+
     /**
      * Removes a Building from the map
      * @param b the Building to remove
@@ -26,11 +89,208 @@ public class CampusMap {
      */
     public Building removeBuilding(Building b) {
         System.out.println("Removing building...");
-        buildings.remove(b);
+        synchronized (this) {
+            if (buildings.remove(b)) {
+                b.detachTotals(totals);
+                if (b instanceof House) {
+                    directory.detach((House) b);
+                }
+                if (b instanceof Library) {
+                    catalog.removeLibrary((Library) b);
+                }
+                if (mbeansRegistered) {
+                    unregisterMBean(objectNameFor(b));
+                }
+            }
+        }
         System.out.println("-->Successfully removed " + b.getName() + " to the map.");
         return b;
     }
 
+    /**
+     * Copies the building list under the map's lock, for readers on other threads (e.g. the
+     * JMX threads reading CampusStats) that must not iterate the list while it changes
+     * @return the Buildings on the map, in map order
+     */
+    synchronized Building[] buildingsSnapshot() {
+        return buildings.toArray(new Building[0]);
+    }
+
+    /**
+     * Reads a campus-wide total (residents, titles, coffee in stock, ...) in O(1)
+     * @param metric the quantity to read
+     * @return its current total over every Building on the map
+     */
+    public long total(CampusTotals.Metric metric) {
+        return totals.get(metric);
+    }
+
+    /**
+     * Accessor for the running totals of the map
+     * @return the map's CampusTotals
+     */
+    public CampusTotals getTotals() {
+        return totals;
+    }
+
+    /**
+     * Searches every Library on the map for a title
+     * @param title the title to search for
+     * @return which libraries hold the title and which can lend it now
+     */
+    public FederatedCatalog.TitleAvailability findTitle(String title) {
+        return catalog.query(title);
+    }
+
+    /**
+     * Accessor for the federated catalog of the map's libraries
+     * @return the map's FederatedCatalog
+     */
+    public FederatedCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Recomputes every total from scratch with a parallel fork/join pass over the buildings,
+     * e.g. to check the running totals
+     * @return a tally array indexed by CampusTotals.Metric ordinal
+     */
+    public long[] recomputeTotals() {
+        return CampusTotals.recompute(buildings);
+    }
+
+    /**
+     * Breaks the totals down by kind of building (Building, House, Library, Cafe)
+     * @return a tally array per class name
+     */
+    public Map<String, long[]> totalsByType() {
+        return CampusTotals.groupBy(buildings, b -> b.getClass().getSimpleName());
+    }
+
+    /**
+     * Breaks the totals down by the start of each building's address
+     * @param length how many leading characters of the address to group on
+     * @return a tally array per address prefix
+     */
+    public Map<String, long[]> totalsByAddressPrefix(int length) {
+        return CampusTotals.groupBy(buildings, b -> {
+            String address = String.valueOf(b.getAddress());
+            return address.substring(0, Math.min(length, address.length()));
+        });
+    }
+
+    /**
+     * Finds where a student lives, using the map's ResidentDirectory kept up to date by
+     * House.moveIn() and House.moveOut()
+     * @param name the student's name
+     * @return the student's residence (house and room), or null if they don't live in any House on the map
+     */
+    public ResidentDirectory.Residence findResidence(String name) {
+        return directory.lookup(name);
+    }
+
+    /**
+     * Accessor for the directory of who lives in which House on the map
+     * @return the map's ResidentDirectory
+     */
+    public ResidentDirectory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Answers "which floors of which buildings can this role reach" for the whole campus
+     * in one pass over the compiled floor-access tables
+     * @param role the role of the visitor
+     * @return each Building on the map, in map order, with bit f set for every reachable floor f
+     */
+    public LinkedHashMap<Building, BitSet> reachableFloors(FloorAccessPolicy.Role role) {
+        LinkedHashMap<Building, BitSet> reachable = new LinkedHashMap<Building, BitSet>();
+        for (Building b : buildings) {
+            reachable.put(b, b.getAccessPolicy().reachableFloors(role));
+        }
+        return reachable;
+    }
+
+    /**
+     * Exposes the operation counters of every Building on the map, plus a campus-wide
+     * aggregate, as MBeans on the platform MBean server. Buildings added or removed
+     * afterwards are registered or unregistered automatically.
+     */
+    public synchronized void registerMBeans() {
+        if (mbeansRegistered) {
+            return;
+        }
+        registerMBean(new CampusStats(this), campusObjectName());
+        int registered = 0;
+        try {
+            for (Building b : buildings) {
+                registerMBean(b.getStats(), objectNameFor(b));
+                registered++;
+            }
+        } catch (RuntimeException e) {
+            // Undo the registrations that succeeded, so a later call can try again from scratch
+            unregisterMBean(campusObjectName());
+            for (int i = 0; i < registered; i++) {
+                unregisterMBean(objectNameFor(buildings.get(i)));
+            }
+            throw e;
+        }
+        mbeansRegistered = true;
+    }
+
+    /**
+     * Removes every MBean registered by registerMBeans()
+     */
+    public synchronized void unregisterMBeans() {
+        if (!mbeansRegistered) {
+            return;
+        }
+        unregisterMBean(campusObjectName());
+        for (Building b : buildings) {
+            unregisterMBean(objectNameFor(b));
+        }
+        mbeansRegistered = false;
+    }
+
+    /* Names include the map id, and building names the id of the building's stats, because
+     * neither building names nor maps are unique */
+    private ObjectName campusObjectName() {
+        return objectName("type=Campus,map=" + mapId);
+    }
+
+    private ObjectName objectNameFor(Building b) {
+        return objectName("type=" + b.getClass().getSimpleName() + ",map=" + mapId + ",name="
+                          + ObjectName.quote(String.valueOf(b.getName())) + ",id=" + b.getStats().getId());
+    }
+
+    private static ObjectName objectName(String properties) {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":" + properties);
+        } catch (JMException e) {
+            throw new RuntimeException("Invalid MBean name " + properties + ".", e);
+        }
+    }
+
+    private static void registerMBean(BuildingStatsMBean stats, ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new StandardMBean(stats, BuildingStatsMBean.class), name);
+        } catch (JMException e) {
+            throw new RuntimeException("Could not register MBean " + name + ".", e);
+        }
+    }
+
+    private static void unregisterMBean(ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new RuntimeException("Could not unregister MBean " + name + ".", e);
+        }
+    }
+
     public String toString() {
         String mapString = "DIRECTORY of BUILDINGS";
 
@@ -63,6 +323,37 @@ public class CampusMap {
         myMap.addBuilding(new House("Cutter House", "1 Henshaw Ave, Northampton, MA 01063", 4, true, true));
 
         System.out.println(myMap);
+
+        // Visitors can reach every floor except the upstairs storage of Compass Cafe
+        for (Map.Entry<Building, BitSet> entry : myMap.reachableFloors(FloorAccessPolicy.Role.VISITOR).entrySet()) {
+            System.out.println(entry.getKey().getName() + ": visitors can reach floors " + entry.getValue());
+        }
+
+        // Campus totals are kept up to date as things happen, and can be checked against a full recompute
+        System.out.println("Campus totals: " + CampusTotals.format(myMap.getTotals().toArray()));
+        for (Map.Entry<String, long[]> entry : myMap.totalsByType().entrySet()) {
+            System.out.println("  " + entry.getKey() + ": " + CampusTotals.format(entry.getValue()));
+        }
+
+        // One search covers every library; a checkout anywhere drops just that title from the cache
+        Library neilson = (Library) myMap.buildings.get(4);
+        Library josten = (Library) myMap.buildings.get(5);
+        neilson.addTitle("Middlemarch");
+        josten.addTitle("Middlemarch");
+        System.out.println(myMap.findTitle("Middlemarch"));
+        neilson.checkOut("Middlemarch");
+        System.out.println(myMap.findTitle("Middlemarch"));
+
+        // Operation counters are visible in jconsole under the "CampusMap" domain
+        myMap.registerMBeans();
+        Building fordHall = myMap.buildings.get(0);
+        fordHall.enter();
+        fordHall.goUp();
+        fordHall.goDown();
+        fordHall.exit();
+        CampusStats campusStats = new CampusStats(myMap);
+        System.out.println("Recorded " + campusStats.getCount("GO_TO_FLOOR") + " goToFloor() calls across campus, p99 "
+                           + campusStats.getPercentileNanos("GO_TO_FLOOR", 99.0) + "ns.");
     }
     
 }
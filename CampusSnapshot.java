@@ -0,0 +1,354 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/** Saves a whole CampusMap to a binary file and loads it back quickly, without calling the
+ * public constructors and addBuilding() once per building.
+ *
+ * File layout (version 1, all numbers big-endian):
+ *  - header: magic "CMAP", version, number of buildings, number of sections
+ *  - section table: for each section, its first building, building count, file offset and length
+ *  - sections: the records of SECTION_SIZE consecutive buildings. A record is a kind byte, the
+ *    name, address and number of floors, then the subclass state: a House's flags and residents
+ *    with their rooms, a Library's elevator flag and CompactCatalog (see CompactCatalog.writeTo()),
+ *    a Cafe's inventory. Strings are an int byte length (-1 for null) and their UTF-8 bytes.
+ *
+ * load() memory-maps each section and decodes the sections in parallel. Library catalogs are not
+ * decoded while loading: each one is opened with CompactCatalog.mapped() and reads its titles
+ * from the mapped file on first use. Residents are decoded straight away, because the new map's
+ * ResidentDirectory has to know about them.
+ *
+ * Loans, the library clock, operation stats and who is inside which building are not saved;
+ * checked-out titles are saved as unavailable.
+ */
+public class CampusSnapshot {
+
+    /** "CMAP" in ASCII */
+    public static final int MAGIC = 0x434D4150;
+    /** Version written by save(); load() rejects any other */
+    public static final int VERSION = 1;
+    /** Number of buildings per section, i.e. per parallel decoding task */
+    public static final int SECTION_SIZE = 2048;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int TABLE_ENTRY_BYTES = 24;
+
+    private static final byte BUILDING = 0;
+    private static final byte HOUSE = 1;
+    private static final byte LIBRARY = 2;
+    private static final byte CAFE = 3;
+
+    /** Private constructor: the methods are static */
+    private CampusSnapshot() {
+    }
+
+    /** Saves a map. The map should not be changed while it is being saved.
+     *
+     * The snapshot is written to a temporary file next to the target and then moved over it, so
+     * an existing file is replaced, never rewritten in place: maps loaded from it keep reading
+     * their catalogs from the old contents, and a failed save leaves the old file intact.
+     * @param map the map to save
+     * @param file where to save it; an existing file is replaced
+     */
+    public static void save(CampusMap map, Path file) {
+        Building[] buildings = map.buildings.toArray(new Building[0]);
+        int nSections = (buildings.length + SECTION_SIZE - 1) / SECTION_SIZE;
+        byte[][] sections = IntStream.range(0, nSections).parallel()
+            .mapToObj(s -> encodeSection(buildings, s * SECTION_SIZE, Math.min(buildings.length, (s + 1) * SECTION_SIZE)))
+            .toArray(byte[][]::new);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + nSections * TABLE_ENTRY_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(buildings.length).putInt(nSections);
+        long offset = header.capacity();
+        for (int s = 0; s < nSections; s++) {
+            header.putInt(s * SECTION_SIZE);
+            header.putInt(Math.min(SECTION_SIZE, buildings.length - s * SECTION_SIZE));
+            header.putLong(offset);
+            header.putLong(sections[s].length);
+            offset += sections[s].length;
+        }
+        header.flip();
+
+        Path temp = null;
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            temp = Files.createTempFile(directory, String.valueOf(file.getFileName()), ".tmp");
+            if (Files.exists(file)) {
+                try {
+                    // Temporary files are owner-only; keep the permissions of the file being replaced
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(file));
+                } catch (UnsupportedOperationException e) {
+                    // Not a POSIX file system, nothing to copy
+                }
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                writeFully(channel, header);
+                for (byte[] section : sections) {
+                    writeFully(channel, ByteBuffer.wrap(section));
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING); // Still a rename within one directory
+            }
+        } catch (IOException e) {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // The original error is the one worth reporting
+                }
+            }
+            throw new RuntimeException("Cannot save the campus map to " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /** Loads a map saved by save(). The map gets its own ResidentDirectory, so the same snapshot
+     * can be loaded while the map it was saved from (or an earlier load) is still in use.
+     * @param file the snapshot to load
+     * @return a new CampusMap holding the saved buildings, in the saved order
+     */
+    public static CampusMap load(Path file) {
+        ByteBuffer[] sections;
+        int nBuildings;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new RuntimeException(file + " is not a campus snapshot.");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new RuntimeException(file + " is not a campus snapshot.");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new RuntimeException(file + " is a version " + version + " snapshot; only version " + VERSION + " can be loaded.");
+            }
+            nBuildings = header.getInt();
+            int nSections = header.getInt();
+            if (nBuildings < 0 || nSections < 0 || HEADER_BYTES + (long) nSections * TABLE_ENTRY_BYTES > size) {
+                throw new RuntimeException(file + " is corrupt: bad header.");
+            }
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, (long) nSections * TABLE_ENTRY_BYTES);
+            sections = new ByteBuffer[nSections];
+            int expectedFirst = 0;
+            for (int s = 0; s < nSections; s++) {
+                int first = table.getInt();
+                int count = table.getInt();
+                long offset = table.getLong();
+                long length = table.getLong();
+                if (first != expectedFirst || count < 0 || offset < 0 || length < 0 || length > Integer.MAX_VALUE
+                    || offset + length > size) {
+                    throw new RuntimeException(file + " is corrupt: bad section " + s + ".");
+                }
+                expectedFirst += count;
+                // Each section gets its own mapping, so a snapshot may be bigger than 2GB in total
+                sections[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+            if (expectedFirst != nBuildings) {
+                throw new RuntimeException(file + " is corrupt: sections hold " + expectedFirst + " of " + nBuildings + " buildings.");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot load a campus map from " + file + ": " + e.getMessage(), e);
+        }
+
+        Section[] decoded;
+        try {
+            decoded = IntStream.range(0, sections.length).parallel()
+                .mapToObj(s -> decodeSection(sections[s]))
+                .toArray(Section[]::new);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new RuntimeException(file + " is corrupt: " + e, e);
+        }
+
+        List<Building> buildings = new ArrayList<Building>(nBuildings);
+        for (Section section : decoded) {
+            buildings.addAll(section.buildings);
+        }
+        CampusMap map = new CampusMap();
+        map.addBuildings(buildings);
+        return map;
+    }
+
+    /** The buildings of one section */
+    private static class Section {
+        final List<Building> buildings = new ArrayList<Building>();
+    }
+
+    private static byte[] encodeSection(Building[] buildings, int from, int to) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (int i = from; i < to; i++) {
+                Building b = buildings[i];
+                byte kind = kindOf(b);
+                out.writeByte(kind);
+                writeString(out, b.getName());
+                writeString(out, b.getAddress());
+                out.writeInt(b.getFloors());
+                if (kind == HOUSE) {
+                    House house = (House) b;
+                    out.writeByte((house.diningRoom() ? 1 : 0) | (house.getElevator() ? 2 : 0));
+                    List<String> residents = house.getResidents();
+                    out.writeInt(residents.size());
+                    for (String name : residents) {
+                        writeString(out, name);
+                        writeString(out, house.roomOf(name));
+                    }
+                } else if (kind == LIBRARY) {
+                    Library library = (Library) b;
+                    CompactCatalog collection = library.getCollection();
+                    out.writeBoolean(library.getElevator());
+                    out.writeInt(collection.savedBytes());
+                    collection.writeTo(out);
+                } else if (kind == CAFE) {
+                    for (int stock : ((Cafe) b).getInventory()) {
+                        out.writeInt(stock);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e); // A ByteArrayOutputStream does not fail
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Section decodeSection(ByteBuffer in) {
+        Section section = new Section();
+        while (in.hasRemaining()) {
+            byte kind = in.get();
+            String name = readString(in);
+            String address = readString(in);
+            int nFloors = in.getInt();
+            switch (kind) {
+                case HOUSE:
+                    byte flags = in.get();
+                    int nResidents = in.getInt();
+                    House house = new House(name, address, nFloors, (flags & 1) != 0, (flags & 2) != 0, nResidents);
+                    for (int r = 0; r < nResidents; r++) {
+                        String resident = readString(in);
+                        house.addResident(resident, readString(in)); // Checked for duplicates when the map attaches the house
+                    }
+                    section.buildings.add(house);
+                    break;
+                case LIBRARY:
+                    boolean hasElevator = in.get() != 0;
+                    int catalogBytes = in.getInt();
+                    CompactCatalog collection = CompactCatalog.mapped(in.slice(in.position(), catalogBytes));
+                    in.position(in.position() + catalogBytes);
+                    section.buildings.add(new Library(name, address, nFloors, hasElevator, collection));
+                    break;
+                case CAFE:
+                    int[] inventory = new int[4];
+                    for (int i = 0; i < inventory.length; i++) {
+                        inventory[i] = in.getInt();
+                    }
+                    section.buildings.add(new Cafe(name, address, nFloors, inventory));
+                    break;
+                case BUILDING:
+                    section.buildings.add(new Building(name, address, nFloors));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown building kind " + kind);
+            }
+        }
+        return section;
+    }
+
+    /** Only these exact classes are saved; a subclass would lose its own state */
+    private static byte kindOf(Building b) {
+        if (b.getClass() == House.class) {
+            return HOUSE;
+        } else if (b.getClass() == Library.class) {
+            return LIBRARY;
+        } else if (b.getClass() == Cafe.class) {
+            return CAFE;
+        } else if (b.getClass() == Building.class) {
+            return BUILDING;
+        }
+        throw new RuntimeException("Cannot save " + b.getName() + ": " + b.getClass().getName() + " is not supported by CampusSnapshot.");
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /** Benchmark at 100,000 buildings: compares building the map through the constructors with
+     * loading it from a snapshot, and checks that both give the same campus totals
+     * @param args optionally, the number of buildings (default 100,000) and titles per library (default 100)
+     */
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int titlesPerLibrary = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Path file = Files.createTempFile("campus", ".snapshot");
+        file.toFile().deleteOnExit();
+
+        PrintStream console = CampusBenchmarks.quiet();
+        for (int round = 0; round < 5; round++) {
+            System.gc(); // Collect the previous round's maps now, not during the timed phases
+            long start = System.nanoTime();
+            CampusMap built = CampusBenchmarks.sampleCampus(n, titlesPerLibrary);
+            long constructed = System.nanoTime();
+            long[] expected = built.getTotals().toArray();
+            if (round == 0) {
+                long saveStart = System.nanoTime();
+                save(built, file);
+                console.printf("saved %d buildings in %.0f ms, %.1f MB%n", n,
+                                  (System.nanoTime() - saveStart) / 1e6, Files.size(file) / 1e6);
+            }
+            built = null;
+            System.gc();
+
+            long loadStart = System.nanoTime();
+            CampusMap loaded = load(file);
+            long loadEnd = System.nanoTime();
+            loaded.findTitle("Title 1"); // Asks every library, so every catalog is decoded
+            long touched = System.nanoTime();
+            boolean consistent = loaded.buildings.size() == n && Arrays.equals(expected, loaded.getTotals().toArray())
+                                 && loaded.getDirectory().houseOf("Student 0-0") == loaded.buildings.get(0);
+            console.printf("round %d: constructors %.0f ms, snapshot load %.0f ms (%.1fx faster),"
+                              + " first search decoding every catalog %.0f ms, consistent=%b%n",
+                              round, (constructed - start) / 1e6, (loadEnd - loadStart) / 1e6,
+                              (constructed - start) / (double) (loadEnd - loadStart), (touched - loadEnd) / 1e6, consistent);
+        }
+        System.setOut(console);
+    }
+
+}
@@ -0,0 +1,67 @@
+/** Campus-wide view of the operation counters, summed over every Building on a CampusMap.
+ * Registered with JMX by CampusMap.registerMBeans() alongside the per-building stats.
+ */
+public class CampusStats implements BuildingStatsMBean {
+
+    /** The map whose buildings are aggregated */
+    private final CampusMap map;
+
+    /** Constructor
+     * @param map the map whose buildings are aggregated
+     */
+    public CampusStats(CampusMap map) {
+        this.map = map;
+    }
+
+    public boolean isEnabled() {
+        return BuildingStats.isRecording();
+    }
+
+    public void setEnabled(boolean enabled) {
+        BuildingStats.setRecording(enabled);
+    }
+
+    public String[] getOperations() {
+        return BuildingStats.operationNames();
+    }
+
+    public long getCount(String operation) {
+        BuildingStats.Operation op = BuildingStats.operationNamed(operation);
+        long total = 0;
+        for (Building b : map.buildingsSnapshot()) {
+            total += b.getStats().count(op);
+        }
+        return total;
+    }
+
+    public long getMeanNanos(String operation) {
+        BuildingStats.Operation op = BuildingStats.operationNamed(operation);
+        long n = 0;
+        long nanos = 0;
+        for (Building b : map.buildingsSnapshot()) {
+            n += b.getStats().timedCount(op);
+            nanos += b.getStats().totalNanos(op);
+        }
+        return n == 0 ? 0 : nanos / n;
+    }
+
+    public long getPercentileNanos(String operation, double percentile) {
+        return OperationStats.percentileOf(getHistogram(operation), percentile);
+    }
+
+    public long[] getHistogram(String operation) {
+        BuildingStats.Operation op = BuildingStats.operationNamed(operation);
+        long[] histogram = new long[OperationStats.N_BUCKETS];
+        for (Building b : map.buildingsSnapshot()) {
+            b.getStats().addHistogram(op, histogram);
+        }
+        return histogram;
+    }
+
+    public void reset() {
+        for (Building b : map.buildingsSnapshot()) {
+            b.getStats().reset();
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/** Running totals for a whole CampusMap: residents, library titles, cafe inventory and so on.
+ * Buildings on a map report every change (moveIn, checkOut, sellCoffee, ...) to the map's
+ * totals as it happens, so reading a total is O(1) no matter how many buildings there are.
+ *
+ * recompute() and groupBy() rebuild the same numbers from scratch with a fork/join pass over
+ * the buildings, to verify the running totals or to break them down by building type,
+ * address prefix, etc.
+ */
+public class CampusTotals {
+
+    /** The quantities that are totalled */
+    public enum Metric {
+        BUILDINGS, RESIDENTS, TITLES, AVAILABLE_TITLES, COFFEE_OUNCES, SUGAR_PACKETS, CREAMS, CUPS
+    }
+
+    /** Number of metrics, i.e. the length of a tally array */
+    public static final int N_METRICS = Metric.values().length;
+    /** Buildings per fork/join leaf task */
+    private static final int LEAF_SIZE = 2048;
+
+    /** Running total of each metric, indexed by ordinal */
+    private final LongAdder[] counters = new LongAdder[N_METRICS];
+
+    /** Default constructor, all totals start at zero */
+    public CampusTotals() {
+        for (int i = 0; i < N_METRICS; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+    /** Reads a running total
+     * @param metric the quantity to read
+     * @return its current campus-wide total
+     */
+    public long get(Metric metric) {
+        return counters[metric.ordinal()].sum();
+    }
+
+    /** Reads every running total at once
+     * @return a tally array indexed by Metric ordinal
+     */
+    public long[] toArray() {
+        long[] values = new long[N_METRICS];
+        for (int i = 0; i < N_METRICS; i++) {
+            values[i] = counters[i].sum();
+        }
+        return values;
+    }
+
+    /** Applies a change reported by a building
+     * @param metric the quantity that changed
+     * @param delta how much it changed by
+     */
+    void add(Metric metric, long delta) {
+        counters[metric.ordinal()].add(delta);
+    }
+
+    /** Adds (or subtracts) a whole building's contribution, when it joins (or leaves) the map
+     * @param tally the building's tally, as filled in by Building.tally()
+     * @param sign 1 to add, -1 to subtract
+     */
+    void addAll(long[] tally, int sign) {
+        for (int i = 0; i < N_METRICS; i++) {
+            if (tally[i] != 0) {
+                counters[i].add(sign * tally[i]);
+            }
+        }
+    }
+
+    /** Recomputes every total from scratch with a parallel pass over the buildings
+     * @param buildings the buildings to total
+     * @return a tally array indexed by Metric ordinal
+     */
+    public static long[] recompute(List<Building> buildings) {
+        long[] total = groupBy(buildings, b -> "").get("");
+        return total == null ? new long[N_METRICS] : total;
+    }
+
+    /** Recomputes the totals from scratch, broken down by a key, with a parallel pass over the buildings
+     * @param buildings the buildings to total
+     * @param key maps a building to its group, e.g. its type or the start of its address
+     * @return a tally array per group
+     */
+    public static Map<String, long[]> groupBy(List<Building> buildings, Function<Building, String> key) {
+        return ForkJoinPool.commonPool().invoke(new GroupTask(buildings, key, 0, buildings.size()));
+    }
+
+    /** Fork/join task that tallies a range of buildings into per-group arrays */
+    private static class GroupTask extends RecursiveTask<HashMap<String, long[]>> {
+        private static final long serialVersionUID = 1L;
+        private final List<Building> buildings;
+        private final Function<Building, String> key;
+        private final int from;
+        private final int to;
+
+        GroupTask(List<Building> buildings, Function<Building, String> key, int from, int to) {
+            this.buildings = buildings;
+            this.key = key;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected HashMap<String, long[]> compute() {
+            if (to - from <= LEAF_SIZE) {
+                HashMap<String, long[]> groups = new HashMap<String, long[]>();
+                for (int i = from; i < to; i++) {
+                    Building b = buildings.get(i);
+                    b.tally(groups.computeIfAbsent(key.apply(b), k -> new long[N_METRICS]));
+                }
+                return groups;
+            }
+            int middle = (from + to) >>> 1;
+            GroupTask left = new GroupTask(buildings, key, from, middle);
+            left.fork();
+            HashMap<String, long[]> right = new GroupTask(buildings, key, middle, to).compute();
+            HashMap<String, long[]> merged = left.join();
+            for (Map.Entry<String, long[]> entry : right.entrySet()) {
+                long[] into = merged.computeIfAbsent(entry.getKey(), k -> new long[N_METRICS]);
+                for (int i = 0; i < N_METRICS; i++) {
+                    into[i] += entry.getValue()[i];
+                }
+            }
+            return merged;
+        }
+    }
+
+    /** Formats a tally array, e.g. for printing
+     * @param tally a tally array indexed by Metric ordinal
+     * @return the non-zero metrics and their values
+     */
+    public static String format(long[] tally) {
+        String text = "";
+        for (Metric metric : Metric.values()) {
+            if (tally[metric.ordinal()] != 0) {
+                text += (text.isEmpty() ? "" : ", ") + metric.name().toLowerCase() + "=" + tally[metric.ordinal()];
+            }
+        }
+        return text.isEmpty() ? "(nothing)" : text;
+    }
+
+    /** Benchmark at 100,000 buildings: compares O(1) reads of the running totals against a
+     * sequential walk over every building and the parallel fork/join recompute
+     * @param args optionally, the number of buildings (default 100,000)
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        PrintStream console = CampusBenchmarks.quiet();
+        CampusMap map = CampusBenchmarks.sampleCampus(n, 8);
+        System.setOut(console);
+        System.out.println(n + " buildings: " + format(map.getTotals().toArray()));
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long residents = 0;
+            for (int i = 0; i < 1000; i++) {
+                residents += map.total(Metric.RESIDENTS);
+            }
+            long read = System.nanoTime();
+            long[] walked = new long[N_METRICS];
+            for (Building b : map.buildings) {
+                b.tally(walked);
+            }
+            long sequential = System.nanoTime();
+            long[] parallel = map.recomputeTotals();
+            long recomputed = System.nanoTime();
+            Map<String, long[]> byType = map.totalsByType();
+            long grouped = System.nanoTime();
+            System.out.printf("round %d: O(1) read %.0f ns, sequential walk %.1f ms, fork/join recompute %.1f ms"
+                              + " (%d threads), group by type %.1f ms, consistent=%b%n",
+                              round, (read - start) / 1000.0, (sequential - read) / 1e6, (recomputed - sequential) / 1e6,
+                              ForkJoinPool.getCommonPoolParallelism(), (grouped - recomputed) / 1e6,
+                              residents == 1000 * walked[Metric.RESIDENTS.ordinal()]
+                              && Arrays.equals(walked, parallel) && Arrays.equals(map.getTotals().toArray(), parallel)
+                              && byType.size() == 4);
+        }
+    }
+
+}
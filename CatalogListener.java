@@ -0,0 +1,13 @@
+/** Receives a notice whenever a title in a Library's collection changes (added, removed,
+ * checked out or returned). FederatedCatalog uses it to drop exactly the cached results that
+ * went stale.
+ */
+public interface CatalogListener {
+
+    /** Called after a title's presence or availability changes
+     * @param library the library whose collection changed
+     * @param title the title that changed
+     */
+    void titleChanged(Library library, String title);
+
+}
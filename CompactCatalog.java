@@ -0,0 +1,537 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.function.BiConsumer;
+
+/** A memory-compact set of book titles with an availability flag each, used as a Library's
+ * collection. Instead of a String key, an entry object and a boxed Boolean per title, it keeps:
+ *  - the UTF-8 bytes of every distinct title back to back in one arena (on or off the Java heap)
+ *  - an int offset and an int hash per title
+ *  - an open-addressing index of title ids
+ *  - two bitsets, one for "in the collection" and one for "available"
+ * That is roughly the title's bytes plus 15 bytes per title, and only a handful of objects in
+ * total, however many titles there are.
+ *
+ * Titles are deduplicated: a removed title keeps its bytes and id, and adding it back reuses them.
+ * Methods are synchronized, like the Hashtable this replaces.
+ *
+ * writeTo() saves a catalog in the layout it has in memory, and mapped() opens a saved one
+ * lazily: size() and availableCount() are answered from the header straight away, the arrays
+ * are copied out on the first lookup, and the title bytes stay where they are (e.g. in a
+ * memory-mapped snapshot file) until a new title has to be appended.
+ */
+public class CompactCatalog {
+
+    /** Initial arena size in bytes */
+    private static final int INITIAL_ARENA = 1 << 12;
+    /** Initial number of title ids */
+    private static final int INITIAL_IDS = 64;
+    /** Marks an empty index slot (ids are stored plus one) */
+    private static final int EMPTY = 0;
+
+    /** True if the arena lives outside the Java heap */
+    private final boolean offHeap;
+    /** UTF-8 bytes of every distinct title, back to back */
+    private ByteBuffer arena;
+    /** Title id i occupies arena bytes offsets[i] to offsets[i + 1] - 1 */
+    private int[] offsets;
+    /** hashes[i] is the String hashCode of title id i, kept so the index can grow without decoding */
+    private int[] hashes;
+    /** Open-addressing table of title id + 1, probed linearly from the title's hash */
+    private int[] index;
+    /** Bit i set if title id i is in the collection */
+    private long[] present;
+    /** Bit i set if title id i is available for checkout */
+    private long[] available;
+    /** Number of distinct titles ever added */
+    private int nIds;
+    /** Number of titles currently in the collection */
+    private int nPresent;
+    /** Number of titles currently available */
+    private int nAvailable;
+    /** A saved catalog that has not been decoded yet (see mapped()), or null */
+    private ByteBuffer pending;
+
+    /** Default constructor, keeps the arena on the heap */
+    public CompactCatalog() {
+        this(false);
+    }
+
+    /** Constructor
+     * @param offHeap true to keep the title bytes in a direct buffer outside the Java heap
+     */
+    public CompactCatalog(boolean offHeap) {
+        this.offHeap = offHeap;
+        this.arena = allocate(INITIAL_ARENA);
+        this.offsets = new int[INITIAL_IDS + 1];
+        this.hashes = new int[INITIAL_IDS];
+        this.index = new int[INITIAL_IDS * 2];
+        this.present = new long[INITIAL_IDS / 64];
+        this.available = new long[INITIAL_IDS / 64];
+    }
+
+    /** Private constructor used by mapped(): only the header is read */
+    private CompactCatalog(ByteBuffer saved) {
+        this.offHeap = false;
+        this.pending = saved;
+        this.nIds = saved.getInt(0);
+        this.nPresent = saved.getInt(4);
+        this.nAvailable = saved.getInt(8);
+    }
+
+    /** Opens a catalog saved by writeTo() without decoding it. The buffer must not change
+     * afterwards; the catalog reads its title bytes from it until it needs to grow. The header
+     * is checked against the buffer's size now, so a damaged file fails here rather than at
+     * the first lookup.
+     * @param saved exactly the bytes written by writeTo(), e.g. a slice of a mapped file
+     * @return a catalog that decodes itself on first use
+     * @throws IllegalArgumentException if the header does not describe a catalog of exactly this size
+     */
+    public static CompactCatalog mapped(ByteBuffer saved) {
+        ByteBuffer bytes = saved.slice().asReadOnlyBuffer();
+        int capacity = bytes.capacity();
+        if (capacity < 16) {
+            throw new IllegalArgumentException("catalog of " + capacity + " bytes has no room for its header");
+        }
+        int ids = bytes.getInt(0);
+        int present = bytes.getInt(4);
+        int available = bytes.getInt(8);
+        int arenaBytes = bytes.getInt(12);
+        if (ids < 0 || available < 0 || available > present || present > ids || arenaBytes < 0) {
+            throw new IllegalArgumentException("bad catalog header: " + ids + " ids, " + present + " titles, "
+                                               + available + " available, " + arenaBytes + " arena bytes");
+        }
+        // Same layout as savedBytes(), in long arithmetic so a huge nIds cannot wrap around
+        long expected = 16 + 4 * (2 * (long) ids + 1) + 16 * (((long) ids + 63) / 64) + arenaBytes;
+        if (expected != capacity) {
+            throw new IllegalArgumentException("catalog header describes " + expected + " bytes but " + capacity + " were saved");
+        }
+        return new CompactCatalog(bytes);
+    }
+
+    /** Saves the catalog: a 16-byte header (number of ids, titles, available titles and arena
+     * bytes), then offsets, hashes, both bitsets and the arena, all big-endian
+     * @param out where to write
+     * @throws IOException if out fails
+     */
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        if (pending != null) {
+            // Never decoded, so the saved bytes are still exactly what would be written
+            byte[] saved = new byte[pending.capacity()];
+            pending.get(0, saved);
+            out.write(saved);
+            return;
+        }
+        int arenaBytes = offsets[nIds];
+        int words = (nIds + 63) / 64;
+        out.writeInt(nIds);
+        out.writeInt(nPresent);
+        out.writeInt(nAvailable);
+        out.writeInt(arenaBytes);
+        for (int i = 0; i <= nIds; i++) {
+            out.writeInt(offsets[i]);
+        }
+        for (int i = 0; i < nIds; i++) {
+            out.writeInt(hashes[i]);
+        }
+        for (int i = 0; i < words; i++) {
+            out.writeLong(present[i]);
+        }
+        for (int i = 0; i < words; i++) {
+            out.writeLong(available[i]);
+        }
+        byte[] bytes = new byte[arenaBytes];
+        arena.get(0, bytes);
+        out.write(bytes);
+    }
+
+    /** Number of bytes writeTo() would write
+     * @return the saved size of the catalog
+     */
+    public synchronized int savedBytes() {
+        if (pending != null) {
+            return pending.capacity();
+        }
+        return 16 + 4 * (2 * nIds + 1) + 16 * ((nIds + 63) / 64) + offsets[nIds];
+    }
+
+    /** Accessor for whether a mapped() catalog has been decoded yet
+     * @return false until the first lookup of a mapped() catalog, true otherwise
+     */
+    public synchronized boolean isMaterialized() {
+        return pending == null;
+    }
+
+    /** Adds a title, marking it available (like Hashtable.put(title, true) did)
+     * @param title the title to add
+     * @return true if the title was not already in the collection
+     */
+    public synchronized boolean add(String title) {
+        materialize();
+        int id = find(title);
+        if (id < 0) {
+            id = append(title);
+        }
+        boolean added = !get(present, id);
+        if (added) {
+            set(present, id, true);
+            nPresent++;
+        }
+        setAvailable(id, true);
+        return added;
+    }
+
+    /** Removes a title from the collection
+     * @param title the title to remove
+     * @return true if the title was in the collection
+     */
+    public synchronized boolean remove(String title) {
+        materialize();
+        int id = find(title);
+        if (id < 0 || !get(present, id)) {
+            return false;
+        }
+        setAvailable(id, false);
+        set(present, id, false);
+        nPresent--;
+        return true;
+    }
+
+    /** Checks whether a title is in the collection
+     * @param title the title to look up
+     * @return true if the title is in the collection
+     */
+    public synchronized boolean contains(String title) {
+        materialize();
+        int id = find(title);
+        return id >= 0 && get(present, id);
+    }
+
+    /** Checks whether a title is in the collection and available
+     * @param title the title to look up
+     * @return true if the title can be checked out
+     */
+    public synchronized boolean isAvailable(String title) {
+        materialize();
+        int id = find(title);
+        return id >= 0 && get(available, id);
+    }
+
+    /** Changes the availability of a title that is in the collection
+     * @param title the title to update
+     * @param isAvailable the new availability
+     * @return true if the title is in the collection (and was updated)
+     */
+    public synchronized boolean setAvailable(String title, boolean isAvailable) {
+        materialize();
+        int id = find(title);
+        if (id < 0 || !get(present, id)) {
+            return false;
+        }
+        setAvailable(id, isAvailable);
+        return true;
+    }
+
+    /** Accessor for the number of titles in the collection
+     * @return number of titles
+     */
+    public synchronized int size() {
+        return nPresent;
+    }
+
+    /** Accessor for the number of available titles
+     * @return number of titles that can be checked out
+     */
+    public synchronized int availableCount() {
+        return nAvailable;
+    }
+
+    /** Visits every title in the collection, in the order they were first added
+     * @param visitor receives each title and whether it is available
+     */
+    public synchronized void forEach(BiConsumer<String, Boolean> visitor) {
+        materialize();
+        for (int id = 0; id < nIds; id++) {
+            if (get(present, id)) {
+                visitor.accept(titleOf(id), get(available, id));
+            }
+        }
+    }
+
+    /** Releases the spare capacity left by growing, e.g. after loading a whole catalog at once */
+    public synchronized void trimToSize() {
+        materialize();
+        if (arena.capacity() > offsets[nIds]) {
+            ByteBuffer exact = allocate(offsets[nIds]);
+            exact.put(0, arena, 0, offsets[nIds]);
+            arena = exact;
+        }
+        offsets = Arrays.copyOf(offsets, nIds + 1);
+        hashes = Arrays.copyOf(hashes, nIds);
+        present = Arrays.copyOf(present, (nIds + 63) / 64);
+        available = Arrays.copyOf(available, (nIds + 63) / 64);
+    }
+
+    /** Estimates the memory held by this catalog, for comparing against a Hashtable
+     * @return approximate bytes used by the arena, arrays and bitsets
+     */
+    public synchronized long footprintBytes() {
+        materialize();
+        return (long) arena.capacity() + 4L * (offsets.length + hashes.length + index.length)
+               + 8L * (present.length + available.length);
+    }
+
+    /** Decodes a mapped() catalog: copies out the arrays, rebuilds the index from the saved
+     * hashes and keeps the arena as a view of the saved bytes */
+    private void materialize() {
+        if (pending == null) {
+            return;
+        }
+        ByteBuffer saved = pending;
+        int words = (nIds + 63) / 64;
+        int position = 16;
+        offsets = new int[nIds + 1];
+        saved.position(position);
+        saved.asIntBuffer().get(offsets);
+        position += 4 * (nIds + 1);
+        hashes = new int[nIds];
+        saved.position(position);
+        saved.asIntBuffer().get(hashes);
+        position += 4 * nIds;
+        present = new long[words];
+        saved.position(position);
+        saved.asLongBuffer().get(present);
+        position += 8 * words;
+        available = new long[words];
+        saved.position(position);
+        saved.asLongBuffer().get(available);
+        position += 8 * words;
+        arena = saved.slice(position, saved.getInt(12));
+        int capacity = INITIAL_IDS * 2;
+        while (capacity < nIds * 2) {
+            capacity *= 2;
+        }
+        index = new int[capacity];
+        for (int id = 0; id < nIds; id++) {
+            place(id);
+        }
+        pending = null;
+    }
+
+    /** Finds the id of a title
+     * @return the id, or -1 if the title was never added
+     */
+    private int find(String title) {
+        int hash = title.hashCode();
+        int mask = index.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = index[slot];
+            if (entry == EMPTY) {
+                return -1;
+            }
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(id, title)) {
+                return id;
+            }
+        }
+    }
+
+    /** Copies a new title into the arena and indexes it
+     * @return the new id
+     */
+    private int append(String title) {
+        byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+        if (nIds == hashes.length) {
+            growIds();
+        }
+        int start = offsets[nIds];
+        if (arena.capacity() - start < bytes.length || arena.isReadOnly()) {
+            growArena(start + bytes.length);
+        }
+        arena.put(start, bytes);
+        int id = nIds++;
+        offsets[id + 1] = start + bytes.length;
+        hashes[id] = title.hashCode();
+        insert(id);
+        return id;
+    }
+
+    /** Adds an id to the index; the index is kept at most half full */
+    private void insert(int id) {
+        if (nIds * 2 > index.length) {
+            int[] old = index;
+            index = new int[old.length * 2];
+            for (int entry : old) {
+                if (entry != EMPTY) {
+                    place(entry - 1);
+                }
+            }
+        }
+        place(id);
+    }
+
+    /** Puts an id in the first free slot along its probe sequence */
+    private void place(int id) {
+        int mask = index.length - 1;
+        int slot = spread(hashes[id]) & mask;
+        while (index[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = id + 1;
+    }
+
+    /** Checks whether title id holds exactly the given title, without encoding it when it is ASCII */
+    private boolean matches(int id, String title) {
+        int start = offsets[id];
+        int length = offsets[id + 1] - start;
+        int n = title.length();
+        for (int i = 0; i < n; i++) {
+            char c = title.charAt(i);
+            if (c >= 0x80) {
+                return matchesEncoded(start, length, title);
+            }
+            if (i >= length || arena.get(start + i) != (byte) c) {
+                return false;
+            }
+        }
+        return length == n;
+    }
+
+    /** Slow path of matches() for titles with non-ASCII characters */
+    private boolean matchesEncoded(int start, int length, String title) {
+        byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (arena.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Decodes a title from the arena */
+    private String titleOf(int id) {
+        int start = offsets[id];
+        byte[] bytes = new byte[offsets[id + 1] - start];
+        arena.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void setAvailable(int id, boolean isAvailable) {
+        if (get(available, id) != isAvailable) {
+            set(available, id, isAvailable);
+            nAvailable += isAvailable ? 1 : -1;
+        }
+    }
+
+    private void growIds() {
+        int capacity = Math.max(hashes.length * 2, INITIAL_IDS);
+        offsets = Arrays.copyOf(offsets, capacity + 1);
+        hashes = Arrays.copyOf(hashes, capacity);
+        present = Arrays.copyOf(present, (capacity + 63) / 64);
+        available = Arrays.copyOf(available, (capacity + 63) / 64);
+    }
+
+    private void growArena(int needed) {
+        long capacity = Math.max((long) arena.capacity() * 2, needed);
+        if (capacity > Integer.MAX_VALUE - 8) {
+            capacity = Integer.MAX_VALUE - 8;
+            if (capacity < needed) {
+                throw new RuntimeException("Catalog is full: titles exceed 2GB of UTF-8.");
+            }
+        }
+        ByteBuffer bigger = allocate((int) capacity);
+        bigger.put(0, arena, 0, offsets[nIds]);
+        arena = bigger;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /** Scrambles a String hash so that similar titles don't land in neighbouring slots */
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean get(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void set(long[] bits, int i, boolean value) {
+        if (value) {
+            bits[i >>> 6] |= 1L << i;
+        } else {
+            bits[i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    /** Memory benchmark: loads the same titles into a Hashtable (the old Library collection) and
+     * into heap and off-heap catalogs, reporting heap bytes per title and GC time for each.
+     * Run with a large heap, e.g. java -Xmx3g CompactCatalog 10000000
+     * @param args optionally, the number of titles (default 1,000,000)
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.println("Loading " + n + " titles");
+
+        long before = usedHeap();
+        long gcBefore = gcMillis();
+        Hashtable<String, Boolean> table = new Hashtable<>();
+        for (int i = 0; i < n; i++) {
+            table.put(title(i), true);
+        }
+        report("Hashtable<String, Boolean>", n, usedHeap() - before, gcMillis() - gcBefore, table.size());
+        table = null;
+
+        for (boolean offHeap : new boolean[] {false, true}) {
+            before = usedHeap();
+            gcBefore = gcMillis();
+            CompactCatalog catalog = new CompactCatalog(offHeap);
+            for (int i = 0; i < n; i++) {
+                catalog.add(title(i));
+            }
+            catalog.trimToSize();
+            long heap = usedHeap() - before;
+            report(offHeap ? "CompactCatalog (off-heap)" : "CompactCatalog (heap)", n, heap,
+                   gcMillis() - gcBefore, catalog.size());
+            System.out.printf("  footprint estimate %.1f bytes/title%n", catalog.footprintBytes() / (double) n);
+            catalog = null;
+        }
+    }
+
+    private static String title(int i) {
+        return "The Collected Works, Volume " + i;
+    }
+
+    private static void report(String label, int n, long heapBytes, long gcMillis, int size) {
+        long pauseBefore = gcMillis();
+        System.gc(); // A full collection with the structure still live shows how much it costs to trace
+        long fullGc = gcMillis() - pauseBefore;
+        System.out.printf("%-28s %6.1f heap bytes/title, %5d ms GC while loading, %5d ms full GC (%d titles)%n",
+                          label, heapBytes / (double) n, gcMillis, fullGc, size);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(gc.getCollectionTime(), 0);
+        }
+        return total;
+    }
+
+}
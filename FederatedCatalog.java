@@ -0,0 +1,271 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/** Searches every Library on a CampusMap at once: a title query is fanned out to all branches
+ * and the per-branch answers are merged into one TitleAvailability. Results are kept in a
+ * bounded LRU cache. Each Library reports every change to its collection (addTitle,
+ * removeTitle, checkOut, returnBook), and that drops exactly the cached entry for the changed
+ * title.
+ *
+ * Cache hits, misses and query latency are recorded, so the hit ratio and p99 latency can be
+ * read back with getHitRatio() and getPercentileNanos(99.0).
+ */
+public class FederatedCatalog implements CatalogListener {
+
+    /** Which branches hold a title and where it can be checked out right now */
+    public static class TitleAvailability {
+        /** The title that was searched for */
+        private final String title;
+        /** Names of the libraries whose collection contains the title */
+        private final List<String> branches;
+        /** Names of the libraries where the title is available */
+        private final List<String> availableAt;
+
+        /** Constructor
+         * @param title the title that was searched for
+         * @param branches names of the libraries whose collection contains the title
+         * @param availableAt names of the libraries where the title is available
+         */
+        public TitleAvailability(String title, List<String> branches, List<String> availableAt) {
+            this.title = title;
+            // Results are shared through the cache, so callers get read-only copies. Not List.copyOf(),
+            // which rejects the null name of a Library built without one.
+            this.branches = Collections.unmodifiableList(new ArrayList<String>(branches));
+            this.availableAt = Collections.unmodifiableList(new ArrayList<String>(availableAt));
+        }
+
+        /** @return the title that was searched for */
+        public String getTitle() {
+            return title;
+        }
+
+        /** @return names of the libraries whose collection contains the title (read-only) */
+        public List<String> getBranches() {
+            return branches;
+        }
+
+        /** @return names of the libraries where the title can be checked out (read-only) */
+        public List<String> getAvailableAt() {
+            return availableAt;
+        }
+
+        /** @return true if at least one branch can lend the title right now */
+        public boolean isAvailableAnywhere() {
+            return !availableAt.isEmpty();
+        }
+
+        public String toString() {
+            if (branches.isEmpty()) {
+                return title + ": not in any collection";
+            }
+            return title + ": held by " + branches + ", available at " + availableAt;
+        }
+    }
+
+    /** Default number of cached results */
+    public static final int DEFAULT_CAPACITY = 10_000;
+    /** Fewer branches than this are searched one after another; parallel streams only pay off for more */
+    private static final int PARALLEL_THRESHOLD = 16;
+
+    /** The libraries searched, in map order */
+    private final ArrayList<Library> libraries = new ArrayList<Library>();
+    /** Cached results in least-recently-used order */
+    private final LinkedHashMap<String, TitleAvailability> cache;
+    /** Bumped by every invalidation, so a query that raced with a change does not cache a stale result */
+    private long generation;
+
+    /** Number of queries answered from the cache */
+    private final LongAdder hits = new LongAdder();
+    /** Number of queries that had to ask every branch */
+    private final LongAdder misses = new LongAdder();
+    /** Latency of query() */
+    private final OperationStats latency = new OperationStats();
+
+    /** Default constructor, caches up to DEFAULT_CAPACITY results */
+    public FederatedCatalog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** Constructor
+     * @param capacity maximum number of cached results
+     */
+    public FederatedCatalog(int capacity) {
+        this.cache = new LinkedHashMap<String, TitleAvailability>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TitleAvailability> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Starts searching a library; called by CampusMap.addBuilding()
+     * @param library the library to add
+     */
+    synchronized void addLibrary(Library library) {
+        libraries.add(library);
+        library.addCatalogListener(this);
+        invalidateAll(); // Every cached answer is missing the new branch
+    }
+
+    /** Stops searching a library; called by CampusMap.removeBuilding()
+     * @param library the library to remove
+     */
+    synchronized void removeLibrary(Library library) {
+        if (libraries.remove(library)) {
+            library.removeCatalogListener(this);
+            invalidateAll();
+        }
+    }
+
+    /** Looks a title up in every library
+     * @param title the title to search for
+     * @return which branches hold the title and which can lend it now
+     */
+    public TitleAvailability query(String title) {
+        long start = System.nanoTime();
+        Library[] branches;
+        long queryGeneration;
+        synchronized (this) {
+            TitleAvailability cached = cache.get(title);
+            if (cached != null) {
+                hits.increment();
+                latency.record(System.nanoTime() - start);
+                return cached;
+            }
+            branches = libraries.toArray(new Library[0]);
+            queryGeneration = generation;
+        }
+        misses.increment();
+        TitleAvailability result = search(title, branches);
+        synchronized (this) {
+            if (generation == queryGeneration) {
+                cache.put(title, result);
+            }
+        }
+        latency.record(System.nanoTime() - start);
+        return result;
+    }
+
+    /** Asks every branch about a title, in parallel when there are many branches */
+    private static TitleAvailability search(String title, Library[] branches) {
+        // 0 = not held, 1 = held but checked out, 2 = available
+        IntStream range = IntStream.range(0, branches.length);
+        if (branches.length >= PARALLEL_THRESHOLD) {
+            range = range.parallel();
+        }
+        int[] status = range.map(i -> branches[i].isAvailable(title) ? 2 : branches[i].containsTitle(title) ? 1 : 0).toArray();
+        List<String> held = new ArrayList<String>();
+        List<String> available = new ArrayList<String>();
+        for (int i = 0; i < branches.length; i++) {
+            if (status[i] > 0) {
+                held.add(branches[i].getName());
+            }
+            if (status[i] == 2) {
+                available.add(branches[i].getName());
+            }
+        }
+        return new TitleAvailability(title, held, available);
+    }
+
+    /** Drops the cached result for a title that changed in one library */
+    public synchronized void titleChanged(Library library, String title) {
+        cache.remove(title);
+        generation++;
+    }
+
+    /** Drops every cached result */
+    public synchronized void invalidateAll() {
+        cache.clear();
+        generation++;
+    }
+
+    /** Accessor for the number of cached results
+     * @return number of titles in the cache
+     */
+    public synchronized int cacheSize() {
+        return cache.size();
+    }
+
+    /** Accessor for the cache hit ratio
+     * @return fraction of queries answered from the cache, or 0 if there were none
+     */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : h / (double) total;
+    }
+
+    /** Reads the query latency distribution
+     * @param percentile a value between 0 and 100, e.g. 99.0
+     * @return latency in nanoseconds below which that percentage of queries completed
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] histogram = new long[OperationStats.N_BUCKETS];
+        latency.addTo(histogram);
+        return OperationStats.percentileOf(histogram, percentile);
+    }
+
+    /** Clears the hit, miss and latency counters */
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        latency.reset();
+    }
+
+    /** Benchmark: a skewed query workload (a few popular titles, a long tail) over several
+     * branches, with checkouts and returns mixed in, reporting hit ratio and p99 latency
+     * @param args optionally, the number of libraries and of titles per library (default 24 and 20,000)
+     */
+    public static void main(String[] args) {
+        int nLibraries = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        int nTitles = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+
+        PrintStream console = CampusBenchmarks.quiet();
+        CampusMap map = new CampusMap();
+        Library[] libraries = new Library[nLibraries];
+        for (int i = 0; i < nLibraries; i++) {
+            libraries[i] = new Library("Branch " + i, i + " Library Lane", 2, false);
+            for (int t = i % 3; t < nTitles; t += 1 + i % 3) {
+                libraries[i].addTitle("Title " + t);
+            }
+            map.addBuilding(libraries[i]);
+        }
+
+        Random random = new Random(7);
+        FederatedCatalog catalog = map.getCatalog();
+        for (int round = 0; round < 3; round++) {
+            catalog.resetStats();
+            long start = System.nanoTime();
+            int queries = 200_000;
+            for (int q = 0; q < queries; q++) {
+                // Cubing a uniform number skews the workload towards low-numbered titles
+                double u = random.nextDouble();
+                String title = "Title " + (int) (u * u * u * nTitles);
+                catalog.query(title);
+                if (q % 50 == 0) {
+                    Library branch = libraries[random.nextInt(nLibraries)];
+                    if (branch.isAvailable(title)) {
+                        branch.checkOut(title);
+                    } else if (branch.containsTitle(title)) {
+                        branch.returnBook(title);
+                    }
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            console.printf("round %d: %d queries over %d branches in %.0f ms, hit ratio %.3f, p50 %d ns, p99 %d ns%n",
+                           round, queries, nLibraries, elapsed / 1e6, catalog.getHitRatio(),
+                           catalog.getPercentileNanos(50.0), catalog.getPercentileNanos(99.0));
+        }
+        System.setOut(console);
+    }
+
+}
@@ -0,0 +1,123 @@
+import java.util.BitSet;
+
+/** Floor-access rules for one Building, compiled into a table with one role bitmask per floor.
+ * Every building shares the same check() instead of overriding goToFloor() with its own
+ * branching, so navigation is a couple of comparisons and one table lookup.
+ *
+ * A building either has an elevator (moves must use the goToFloor(n, b) overload, whatever b is)
+ * or it does not (moves must use goToFloor(n)); this mirrors how House and Library have always
+ * behaved.
+ */
+public class FloorAccessPolicy {
+
+    /** Who is trying to reach a floor */
+    public enum Role {
+        VISITOR, RESIDENT, EMPLOYEE;
+
+        /** @return this role's bit in a floor's role mask */
+        public int bit() {
+            return 1 << ordinal();
+        }
+    }
+
+    /** Mask matching every role; used by the role-less navigation methods */
+    public static final int ANY_ROLE = (1 << Role.values().length) - 1;
+
+    /** floorRoles[f - 1] holds the bits of the roles allowed on floor f */
+    private final byte[] floorRoles;
+    /** True if floors are reached by elevator rather than by stairs */
+    private final boolean hasElevator;
+
+    /** Constructor
+     * @param floorRoles the role mask of each floor, starting with the ground floor
+     * @param hasElevator true if the building has an elevator
+     */
+    private FloorAccessPolicy(byte[] floorRoles, boolean hasElevator) {
+        this.floorRoles = floorRoles;
+        this.hasElevator = hasElevator;
+    }
+
+    /** Builds a policy where every role can reach every floor
+     * @param nFloors number of floors in the building
+     * @param hasElevator true if the building has an elevator
+     * @return the compiled policy
+     */
+    public static FloorAccessPolicy open(int nFloors, boolean hasElevator) {
+        return staffOnlyAbove(nFloors, nFloors, hasElevator);
+    }
+
+    /** Builds a policy where only the lowest floors are public and the rest are employees only
+     * @param nFloors number of floors in the building
+     * @param publicFloors how many floors, counting up from the ground floor, anyone may visit
+     * @param hasElevator true if the building has an elevator
+     * @return the compiled policy
+     */
+    public static FloorAccessPolicy staffOnlyAbove(int nFloors, int publicFloors, boolean hasElevator) {
+        byte[] floorRoles = new byte[nFloors];
+        for (int f = 1; f <= nFloors; f++) {
+            floorRoles[f - 1] = (byte) (f <= publicFloors ? ANY_ROLE : Role.EMPLOYEE.bit());
+        }
+        return new FloorAccessPolicy(floorRoles, hasElevator);
+    }
+
+    /** Accessor for hasElevator
+     * @return true if the building has an elevator
+     */
+    public boolean hasElevator() {
+        return this.hasElevator;
+    }
+
+    /** Accessor for the number of floors covered by the policy
+     * @return number of floors
+     */
+    public int getFloors() {
+        return floorRoles.length;
+    }
+
+    /** Checks whether a move is allowed, without changing anything
+     * @param activeFloor the floor the visitor is on, or -1 if outside
+     * @param floorNum the floor the visitor wants to reach
+     * @param useElevator true if the move is an elevator ride
+     * @param roles bitmask of the visitor's roles (ANY_ROLE to skip the role check)
+     * @return NavStatus.OK, or the reason the move is not allowed
+     */
+    public NavStatus check(int activeFloor, int floorNum, boolean useElevator, int roles) {
+        if (useElevator != hasElevator) {
+            return hasElevator ? NavStatus.HAS_ELEVATOR : NavStatus.NO_ELEVATOR;
+        }
+        if (activeFloor == -1) {
+            return NavStatus.NOT_INSIDE;
+        }
+        if (floorNum < 1 || floorNum > floorRoles.length) {
+            return NavStatus.INVALID_FLOOR;
+        }
+        if ((floorRoles[floorNum - 1] & roles) == 0) {
+            return NavStatus.ACCESS_DENIED;
+        }
+        return NavStatus.OK;
+    }
+
+    /** Checks whether a role may be on a floor
+     * @param floorNum the floor to check
+     * @param role the role to check
+     * @return true if the floor exists and the role may visit it
+     */
+    public boolean allows(int floorNum, Role role) {
+        return floorNum >= 1 && floorNum <= floorRoles.length && (floorRoles[floorNum - 1] & role.bit()) != 0;
+    }
+
+    /** Lists the floors a role may visit
+     * @param role the role to check
+     * @return a BitSet with bit f set for each reachable floor f
+     */
+    public BitSet reachableFloors(Role role) {
+        BitSet floors = new BitSet(floorRoles.length + 1);
+        for (int f = 1; f <= floorRoles.length; f++) {
+            if ((floorRoles[f - 1] & role.bit()) != 0) {
+                floors.set(f);
+            }
+        }
+        return floors;
+    }
+
+}
@@ -1,4 +1,7 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
 /** A class representing a house
  * @author Grace Codd
@@ -14,6 +17,11 @@ public class House extends Building {
   private boolean hasDiningRoom;
   /** True if house has a dining room, false if not */
   private boolean hasElevator;
+  /** Room of each resident whose room is known; null until the first one is */
+  private HashMap<String, String> rooms;
+  /** Directory of the CampusMap this house is on, or null if it is not on a map. Only changed
+   * while holding both the directory's lock and this house's lock. */
+  private volatile ResidentDirectory directory;
 
 
   /* Default constructor */
@@ -31,11 +39,25 @@ public class House extends Building {
    * @param hasElevator true or false if house has an elevator
    */
   public House(String name, String address, int nFloors, boolean hasDiningRoom, boolean hasElevator) {
+    this(name, address, nFloors, hasDiningRoom, hasElevator, 0);
+    System.out.println("You have built a house: 🏠");
+  }
+
+  /** Constructor for a house whose residents are about to be loaded, e.g. by CampusSnapshot.
+   * Prints nothing.
+   * @param name the name of the house
+   * @param address the address at which the house is located
+   * @param nFloors the number of floors the house has
+   * @param hasDiningRoom true or false if house has a dining room
+   * @param hasElevator true or false if house has an elevator
+   * @param expectedResidents initial capacity of the resident list
+   */
+  House(String name, String address, int nFloors, boolean hasDiningRoom, boolean hasElevator, int expectedResidents) {
     super(name, address, nFloors);
     this.hasDiningRoom = hasDiningRoom;
     this.hasElevator = hasElevator;
-    residents = new ArrayList<String>();
-    System.out.println("You have built a house: 🏠");
+    this.policy = FloorAccessPolicy.open(nFloors, hasElevator);
+    residents = new ArrayList<String>(expectedResidents);
   }
 
   /** Accessor for class field hasDiningRoom
@@ -63,8 +85,26 @@ public class House extends Building {
    * list of residents in the house. 
    * @param name the name of the student moving in*/
   public void moveIn(String name){
-    residents.add(name);
-    System.out.println(name + " has moved in.");
+    moveIn(name, null);
+  }
+
+  /** Overloaded moveIn method that also records the student's room
+   * @param name the name of the student moving in
+   * @param room the student's room, or null if it is not known
+   */
+  public void moveIn(String name, String room){
+    long start = stats.start();
+    /* On a map, the map's directory adds name to residents unless the student already lives in
+     * a House on that map; off a map, only this house's own residents are checked */
+    if(!addAsResident(name, room)){
+      ResidentDirectory directory = this.directory;
+      House current = directory != null ? directory.houseOf(name) : this;
+      System.out.println("Error! " + name + " already lives in " + (current == null ? "another house" : current.getName()));
+    }
+    else{
+      System.out.println(name + " has moved in.");
+    }
+    stats.record(BuildingStats.Operation.MOVE_IN, start);
   }
 
   /** Takes in String object representing a name and removes corresponding element from list of residents
@@ -73,15 +113,15 @@ public class House extends Building {
    * @return The name of the student moving out
    */
   public String moveOut(String name){
-    /* Call isResident method. If returns false, print error message */
-    if(!isResident(name)){
+    long start = stats.start();
+    /* Remove name from residents (through the map's directory, if any) if name lives here. If not, print error message */
+    if(!removeAsResident(name)){
       System.out.println("Error! " + name + " is not a resident of " + super.getName());
     }
-    /* If returns true, remove element from residents */
     else{
-      residents.remove(name);
       System.out.println(name + " has moved out.");
     }
+    stats.record(BuildingStats.Operation.MOVE_OUT, start);
     return name;
   }
 
@@ -90,108 +130,157 @@ public class House extends Building {
    * @return true if name person is an element in residents, false if not
    */
   public boolean isResident(String person){
-    // Call contains method, passing person as argument
-    return residents.contains(person);
+    ResidentDirectory directory = this.directory;
+    // On a map, ask the map's directory where person lives instead of scanning residents
+    if(directory != null){
+      return directory.houseOf(person) == this;
+    }
+    synchronized(this){
+      return residents.contains(person);
+    }
   }
 
-  /* Navigation methods */
-  public Building enter() {
-    if (activeFloor != -1) {
-      throw new RuntimeException("You are already inside this Building.");
-    }
-    this.activeFloor = 1;
-    System.out.println("You are now inside " + this.name + " on the ground floor.");
-    return this; // Return a pointer to the current building
+  /** Accessor for the residents, in the order they moved in
+   * @return a copy of residents
+   */
+  synchronized List<String> getResidents(){
+    return new ArrayList<String>(residents);
   }
 
-  public Building exit() {
-    if (this.activeFloor == -1) {
-        throw new RuntimeException("You are not inside this Building. Must call enter() before exit().");
-    }
-    if (this.activeFloor > 1) {
-        throw new RuntimeException("You have fallen out a window from floor #" +this.activeFloor + "!");
-    }
-    System.out.println("You have left " + this.name + ".");
-    this.activeFloor = -1; // We're leaving the building, so we no longer have a valid active floor
-    return null; // We're outside now, so the building is null
+  /** Looks up a resident's room
+   * @param name the name of a resident
+   * @return the resident's room, or null if it is not known
+   */
+  synchronized String roomOf(String name){
+    return rooms == null ? null : rooms.get(name);
   }
 
-  @Override
-  public void showOptions() {
-    System.out.println("Available options at " + this.name + ":\n + enter() \n + exit() \n + goUp() \n + goUp(n) \n + goDown() \n + goUp(n) \n + goToFloor(n) \n + goToFloor(n, b) \n + moveIn(s) \n + moveOut(s) \n + isResident(s) \n");
+  /** Accessor for the directory of the map this house is on
+   * @return the map's ResidentDirectory, or null if the house is not on a map
+   */
+  ResidentDirectory getDirectory(){
+    return directory;
   }
 
-  @Override
-  public void goToFloor(int floorNum) {
-    if (hasElevator == true){
-      throw new RuntimeException("Invalid call to goToFloor. This building has an Elevator");
-    }
-    else{
-      if (this.activeFloor == -1) {
-        throw new RuntimeException("You are not inside this Building. Must call enter() before navigating between floors.");
+  /** Called by ResidentDirectory when the house joins or leaves a map, holding the directory's
+   * lock and this house's lock
+   * @param directory the map's directory, or null
+   */
+  void setDirectory(ResidentDirectory directory){
+    this.directory = directory;
+  }
+
+  /** Adds a name to residents without checking for duplicates. Called by ResidentDirectory,
+   * which holds its lock, and by CampusSnapshot before the house is on a map.
+   * @param name the name of the student moving in
+   * @param room the student's room, or null if it is not known
+   */
+  synchronized void addResident(String name, String room){
+    residents.add(name);
+    if(room != null){
+      if(rooms == null){
+        rooms = new HashMap<String, String>();
       }
-      if (floorNum < 1 || floorNum > this.nFloors) {
-          throw new RuntimeException("Invalid floor number. Valid range for this Building is 1-" + this.nFloors +".");
+      rooms.put(name, room);
+    }
+    count(CampusTotals.Metric.RESIDENTS, 1);
+  }
+
+  /** Removes a name from residents; called by ResidentDirectory, which holds its lock
+   * @param name the name of the student moving out
+   */
+  synchronized void removeResident(String name){
+    if(residents.remove(name)){
+      if(rooms != null){
+        rooms.remove(name);
       }
-      System.out.println("You are now on floor #" + floorNum + " of " + this.name);
-      this.activeFloor = floorNum;
-    } 
-  } 
+      count(CampusTotals.Metric.RESIDENTS, -1);
+    }
+  }
 
-  /** Overloaded goToFloor Method
-    * @param floorNum the number of the floor the user is trying to go to 
-    * @param elevator true or false if house has an elevator
-    */
-    public void goToFloor(int floorNum, boolean elevator) {
-      if (getElevator() == true){
-        if (this.activeFloor == -1) {
-          throw new RuntimeException("You are not inside this Building. Must call enter() before navigating between floors.");
-        }
-        if (floorNum < 1 || floorNum > this.nFloors) {
-          throw new RuntimeException("Invalid floor number. Valid range for this Building is 1-" + this.nFloors +".");
+  /** moveIn through the map's directory, or directly if the house is not on a map. The house
+   * may join or leave a map at the same moment, so the directory is read again once its lock
+   * (or this house's lock) is held, and the move starts over if it changed.
+   * @return false if name already lives here (or, on a map, in another House on it)
+   */
+  private boolean addAsResident(String name, String room){
+    while(true){
+      ResidentDirectory directory = this.directory;
+      if(directory != null){
+        synchronized(directory){
+          if(this.directory == directory){
+            return directory.moveIn(this, name, room);
+          }
         }
-        System.out.println("You are now on floor #" + floorNum + " of " + this.name);
-        this.activeFloor = floorNum;
       }
       else{
-        throw new RuntimeException("Invalid parameter, " + this.name + " does not have an elevator.");
+        synchronized(this){
+          if(this.directory == null){
+            if(residents.contains(name)){
+              return false;
+            }
+            addResident(name, room);
+            return true;
+          }
+        }
       }
-    } 
-  
-  
-    public void goUp() {
-      this.goToFloor(this.activeFloor + 1);
     }
-  
-    /**Overloaded goUp Method
-     * @param floorNum the number of the floor the user is trying to go to
-     */
-    public void goUp(int floorNum) {
-      if (getElevator() == true){
-        int difference =  floorNum - this.activeFloor;
-        this.goToFloor(this.activeFloor + difference, getElevator());
+  }
+
+  /** moveOut through the map's directory, or directly if the house is not on a map; see
+   * addAsResident()
+   * @return false if name does not live here
+   */
+  private boolean removeAsResident(String name){
+    while(true){
+      ResidentDirectory directory = this.directory;
+      if(directory != null){
+        synchronized(directory){
+          if(this.directory == directory){
+            return directory.moveOut(this, name);
+          }
+        }
       }
-      else {
-        throw new RuntimeException("Invalid parameter, " + this.name + " does not have an elevator.");
+      else{
+        synchronized(this){
+          if(this.directory == null){
+            if(!residents.contains(name)){
+              return false;
+            }
+            removeResident(name);
+            return true;
+          }
+        }
       }
-        
-    }
-  
-    public void goDown() {
-      this.goToFloor(this.activeFloor - 1);
     }
-  
+  }
+
+  @Override
+  protected void tally(long[] counts){
+    super.tally(counts);
+    counts[CampusTotals.Metric.RESIDENTS.ordinal()] += residents.size();
+  }
+
+  @Override
+  public void showOptions() {
+    System.out.println("Available options at " + this.name + ":\n + enter() \n + exit() \n + goUp() \n + goUp(n) \n + goDown() \n + goUp(n) \n + goToFloor(n) \n + goToFloor(n, b) \n + moveIn(s) \n + moveIn(s, s) \n + moveOut(s) \n + isResident(s) \n");
+  }
+
+  /* Navigation methods: goToFloor(n), goToFloor(n, b), goUp() and goDown() are inherited from
+   * Building and checked against the FloorAccessPolicy installed by the constructor */
+
+  /**Overloaded goUp Method
+   * @param floorNum the number of the floor the user is trying to go to
+   */
+  public void goUp(int floorNum) {
+    this.goToFloor(floorNum, true);
+  }
+
   /** Overloaded goDown Method
     * @param floorNum the number of the floor the user is trying to go to 
     */
-    public void goDown(int floorNum) {
-    if (getElevator() == true){
-      int difference= this.activeFloor - floorNum;
-      this.goToFloor(this.activeFloor - difference, getElevator());
-    }
-    else{
-      throw new RuntimeException("Invalid parameter, " + this.name + " does not have an elevator.");
-    }
+  public void goDown(int floorNum) {
+    this.goToFloor(floorNum, true);
   }
 
   public String toString() {
@@ -225,6 +314,16 @@ public class House extends Building {
 
     //Print list of residents to see if moveOut method worked
     System.out.println(newHouse.residents.toString());
+
+    //Put both houses on a map, move Kira and Fiadh to the other house in one step, then look Kira up
+    House otherHouse = new House("Talbot House", "25 Prospect St", 3, true, false);
+    otherHouse.moveIn("Jordan", "204");
+    CampusMap map = new CampusMap();
+    map.addBuilding(newHouse);
+    map.addBuilding(otherHouse);
+    map.getDirectory().transfer(newHouse, otherHouse, Arrays.asList("Kira", "Fiadh"));
+    System.out.println("Kira lives in " + map.findResidence("Kira"));
+    System.out.println("Jordan lives in " + map.findResidence("Jordan"));
     System.out.println("There are " + newHouse.nResidents() + " residents living at " + newHouse.getAddress());
 
     //Test inherited toString method 
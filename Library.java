@@ -1,4 +1,7 @@
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /** A class representing a Library 
  * 
@@ -12,9 +15,25 @@ public class Library extends Building{
   /** True if house has a dining room, false if not */
   private boolean hasElevator;
 
-  /** Collection of books in the library stored as a Hashtable with key being book title 
-   * and value being true or false */
-  private Hashtable<String, Boolean> collection;
+  /** Collection of books in the library, each title stored once with an available flag
+   * being true or false (see CompactCatalog) */
+  private CompactCatalog collection;
+
+  /** Default length of a loan in days */
+  public static final int DEFAULT_LOAN_DAYS = 21;
+  /** How many days before the due day the reminder notice is sent */
+  public static final int REMINDER_DAYS = 3;
+
+  /** Outstanding loans, keyed by title */
+  private Hashtable<String, Loan> loans;
+  /** Loans whose overdue notice has fired, keyed by title */
+  private Hashtable<String, Loan> overdueLoans;
+  /** The library's day clock; fires reminder and overdue notices for every loan */
+  private TimingWheel loanClock;
+  /** Receives reminder and overdue notices */
+  private LoanListener loanListener;
+  /** Told about every change to the collection: the FederatedCatalog of each CampusMap the library is on */
+  private final CopyOnWriteArrayList<CatalogListener> catalogListeners = new CopyOnWriteArrayList<>();
 
   /* Default constructor */
   public Library() {
@@ -22,17 +41,48 @@ public class Library extends Building{
   }
 
   /** Constructor calls superclass constructor to assign name, string, and nFloors to
-   * Library object. Initializes a Hashtable and stores in class field collection
+   * Library object. Initializes a CompactCatalog and stores in class field collection
    * @param name the name of the library
    * @param address the address at which the library is located
    * @param floors the number of floors in the library
    * @param hasElevator true or false if house has an elevator
    */
   public Library(String name, String address, int nFloors, boolean hasElevator) {
+    this(name, address, nFloors, hasElevator, new CompactCatalog());
+    System.out.println("You have built a library: 📖");
+  }
+
+  /** Constructor for a library whose collection already exists, e.g. one loaded by CampusSnapshot.
+   * Prints nothing.
+   * @param name the name of the library
+   * @param address the address at which the library is located
+   * @param nFloors the number of floors in the library
+   * @param hasElevator true or false if library has an elevator
+   * @param collection the titles and their availability
+   */
+  Library(String name, String address, int nFloors, boolean hasElevator, CompactCatalog collection) {
     super(name, address, nFloors);
-    collection = new Hashtable<>();
+    this.collection = collection;
+    loans = new Hashtable<>();
+    overdueLoans = new Hashtable<>();
+    loanClock = new TimingWheel(0, (timer, today) -> loanTimerExpired((Loan) timer));
+    loanListener = new LoanListener() {
+      public void reminder(Library library, Loan loan) {
+        System.out.println("Reminder from " + library.getName() + ": " + loan);
+      }
+      public void overdue(Library library, Loan loan) {
+        System.out.println("Overdue at " + library.getName() + ": " + loan);
+      }
+    };
     this.hasElevator = hasElevator;
-    System.out.println("You have built a library: 📖");
+    this.policy = FloorAccessPolicy.open(nFloors, hasElevator);
+  }
+
+  /** Accessor for the collection, used by CampusSnapshot to save it
+   * @return the library's catalog
+   */
+  CompactCatalog getCollection(){
+    return collection;
   }
 
   /** Accessor for class field hasElevator
@@ -42,13 +92,22 @@ public class Library extends Building{
     return this.hasElevator;
   }
 
-  /** Adds a book to library's collection by calling put method from Hashtable class. Sets 
-   * value as true so book is available once added to collection.
+  /** Adds a book to library's collection by calling add method from CompactCatalog class. Marks
+   * the book as available once added to collection.
    * @param title the title of the book added to colelction
    */
   public void addTitle(String title){
-    //Call put method from Hashtable class, passing title and "true" value as args
-    collection.put(title, true);
+    //Call add method from CompactCatalog class, which also marks the title available
+    boolean wasAvailable = collection.isAvailable(title);
+    if(collection.add(title)){
+      count(CampusTotals.Metric.TITLES, 1);
+    }
+    if(!wasAvailable){
+      count(CampusTotals.Metric.AVAILABLE_TITLES, 1);
+      // Adding a checked-out title puts it back on the shelf, so its loan is over
+      endLoan(title);
+    }
+    titleChanged(title);
   }
 
   /** Checks if book is in library's collection and if so, removes book from library's collection
@@ -59,7 +118,13 @@ public class Library extends Building{
     /* Call containsTitle method, passing title as arg. If containsTitle returns true,
     * call remove instance method, passing title as arg to remove title from collection */
     if(containsTitle(title)){
+      if(isAvailable(title)){
+        count(CampusTotals.Metric.AVAILABLE_TITLES, -1);
+      }
       collection.remove(title);
+      count(CampusTotals.Metric.TITLES, -1);
+      endLoan(title);
+      titleChanged(title);
     }
     // If title is not found in collection, print error message
     else
@@ -71,29 +136,164 @@ public class Library extends Building{
    * @param title the name of the book to be checked out
   */
   public void checkOut(String title){
+    checkOut(title, "<Borrower Unknown>", DEFAULT_LOAN_DAYS);
+  }
+
+  /** Overloaded checkOut method that records who borrowed the book and when it is due back
+   * @param title the name of the book to be checked out
+   * @param borrower the name of the person checking out the book
+   * @param loanDays number of days until the book is due
+   */
+  public void checkOut(String title, String borrower, int loanDays){
+    long start = stats.start();
     /*Call isAvailable method, passing title as arg. If isAvailable returns true,
-    * call replace instance method to change value stored at title key to "false"*/
+    * call setAvailable instance method to mark the title as checked out*/
     if(isAvailable(title)){
-      collection.replace(title, false);
+      collection.setAvailable(title, false);
+      count(CampusTotals.Metric.AVAILABLE_TITLES, -1);
+      Loan loan = new Loan(title, borrower, loanClock.getNow() + loanDays);
+      loans.put(title, loan);
+      scheduleNotice(loan);
+      titleChanged(title);
     }
     /* If title is not available, print error message */
     else
       System.out.println("Error! " + title + " is not available." );
+    stats.record(BuildingStats.Operation.CHECK_OUT, start);
   }
 
   /** Checks if book is checked out and changes value stored at title key to "true" to return book
    * @param title the name of the book to be returned
    */
   public void returnBook(String title){
-    /* Call isAvaibalbe method, passing title as arg. If isAvailable returns false,
-     * call replace instance method to change value stored at title key to "true"
+    long start = stats.start();
+    /* Call isAvaibalbe method, passing title as arg. If the title is in the collection and
+     * isAvailable returns false, call setAvailable instance method to mark it available again
      */
-    if(!isAvailable(title)){
-      collection.replace(title, true);
+    if(containsTitle(title) && !isAvailable(title)){
+      collection.setAvailable(title, true);
+      count(CampusTotals.Metric.AVAILABLE_TITLES, 1);
+      endLoan(title);
+      titleChanged(title);
     }
     /* If title has not already been checked out, print error message */
     else
       System.out.println("Error! " + title + " cannot be returned.");
+    stats.record(BuildingStats.Operation.RETURN_BOOK, start);
+  }
+
+  /** Extends the loan of a checked-out book
+   * @param title the name of the book to renew
+   * @param extraDays number of days to add to the due day
+   */
+  public void renew(String title, int extraDays){
+    Loan loan = loans.get(title);
+    if(loan == null){
+      System.out.println("Error! " + title + " is not checked out.");
+      return;
+    }
+    overdueLoans.remove(title);
+    loan.extend(extraDays);
+    scheduleNotice(loan);
+  }
+
+  /** Looks up the loan of a checked-out book
+   * @param title the name of the book
+   * @return the loan, or null if the book is not checked out (or was checked out before loans were tracked)
+   */
+  public Loan getLoan(String title){
+    return loans.get(title);
+  }
+
+  /** Accessor for the loans whose overdue notice has fired
+   * @return the overdue loans, which stay listed until the book is returned or renewed
+   */
+  public Collection<Loan> overdueLoans(){
+    return Collections.unmodifiableCollection(overdueLoans.values());
+  }
+
+  /** Accessor for the library's clock
+   * @return the current day
+   */
+  public long getToday(){
+    return loanClock.getNow();
+  }
+
+  /** Moves the library's clock forward, sending any reminder and overdue notices that fall due
+   * @param days number of days to advance
+   */
+  public void advanceDays(int days){
+    loanClock.advanceTo(loanClock.getNow() + days);
+  }
+
+  /** Replaces the default (printing) receiver of loan notices
+   * @param listener the new receiver
+   */
+  public void setLoanListener(LoanListener listener){
+    this.loanListener = listener;
+  }
+
+  /** Adds a receiver of collection changes, e.g. the catalog of the map the library is on
+   * @param listener the new receiver
+   */
+  void addCatalogListener(CatalogListener listener){
+    catalogListeners.addIfAbsent(listener);
+  }
+
+  /** Removes a receiver added by addCatalogListener(), leaving any others in place
+   * @param listener the receiver to remove
+   */
+  void removeCatalogListener(CatalogListener listener){
+    catalogListeners.remove(listener);
+  }
+
+  /** Tells every catalog listener that a title changed */
+  private void titleChanged(String title){
+    for(CatalogListener listener : catalogListeners){
+      listener.titleChanged(this, title);
+    }
+  }
+
+  /** Arms the next notice of a loan: the reminder if it is still in the future, otherwise the overdue notice */
+  private void scheduleNotice(Loan loan){
+    long reminderDay = loan.getDueDay() - REMINDER_DAYS;
+    if(!loan.reminded && reminderDay > loanClock.getNow()){
+      loanClock.schedule(loan, reminderDay);
+    }
+    else{
+      loan.reminded = true;
+      loanClock.schedule(loan, loan.getDueDay() + 1);
+    }
+  }
+
+  /** Called by the clock when a loan's notice falls due */
+  private void loanTimerExpired(Loan loan){
+    if(!loan.reminded){
+      loan.reminded = true;
+      loanClock.schedule(loan, loan.getDueDay() + 1);
+      loanListener.reminder(this, loan);
+    }
+    else{
+      loan.overdue = true;
+      overdueLoans.put(loan.getTitle(), loan);
+      loanListener.overdue(this, loan);
+    }
+  }
+
+  /** Forgets the loan of a title and cancels its pending notice */
+  private void endLoan(String title){
+    Loan loan = loans.remove(title);
+    if(loan != null){
+      loanClock.cancel(loan);
+      overdueLoans.remove(title);
+    }
+  }
+
+  @Override
+  protected void tally(long[] counts){
+    super.tally(counts);
+    counts[CampusTotals.Metric.TITLES.ordinal()] += collection.size();
+    counts[CampusTotals.Metric.AVAILABLE_TITLES.ordinal()] += collection.availableCount();
   }
 
   /** Checks to see if a title is part of the library's collection
@@ -101,10 +301,10 @@ public class Library extends Building{
    * @return True if title is found in collection, false if not
   */
   public boolean containsTitle(String title){
-    /* Call containsKey instance method, passing title as arg. If containsKey returns true,
+    /* Call contains instance method, passing title as arg. If contains returns true,
      * this means this title can be found in the collection.
      */
-    if(collection.containsKey(title)){
+    if(collection.contains(title)){
       return true;
     }
     else
@@ -116,9 +316,9 @@ public class Library extends Building{
    * @return True if title is available for checkout, false if not.
    */
   public boolean isAvailable(String title){
-    /* Call get instance method, passing title as arg. get method will return the value (true or false)
-     * stored at the title key. */
-    if(collection.get(title) == true){
+    /* Call isAvailable instance method of the collection, passing title as arg. It returns false
+     * for titles that are checked out or not in the collection at all. */
+    if(collection.isAvailable(title) == true){
       return true;
     }
     else
@@ -128,102 +328,24 @@ public class Library extends Building{
   // This method overrides showOptions() of Parent class Building
   @Override
   public void showOptions() {
-    System.out.println("Available options at " + this.name + ":\n + enter() \n + exit() \n + goUp() \n + goUp(n) \n + goDown() \n + goUp(n) \n  + goToFloor(n) \n  + goToFloor(n, b) \n + addTitle(s) \n + removeTitle(s) \n + checkOut(s) \n + returnBook(s) \n + containsTitle(s) \n + isAvailable(s) \n + printCollection(s) \n");
-  }
-
-  /* Navigation methods */
-  public Building enter() {
-    if (activeFloor != -1) {
-      throw new RuntimeException("You are already inside this Building.");
-    }
-    this.activeFloor = 1;
-    System.out.println("You are now inside " + this.name + " on the ground floor.");
-    return this; // Return a pointer to the current building
+    System.out.println("Available options at " + this.name + ":\n + enter() \n + exit() \n + goUp() \n + goUp(n) \n + goDown() \n + goUp(n) \n  + goToFloor(n) \n  + goToFloor(n, b) \n + addTitle(s) \n + removeTitle(s) \n + checkOut(s) \n + checkOut(s, s, n) \n + renew(s, n) \n + returnBook(s) \n + advanceDays(n) \n + containsTitle(s) \n + isAvailable(s) \n + printCollection(s) \n");
   }
 
-  public Building exit() {
-    if (this.activeFloor == -1) {
-      throw new RuntimeException("You are not inside this Building. Must call enter() before exit().");
-    }
-    if (this.activeFloor > 1) {
-      throw new RuntimeException("You have fallen out a window from floor #" +this.activeFloor + "!");
-    }
-    System.out.println("You have left " + this.name + ".");
-    this.activeFloor = -1; // We're leaving the building, so we no longer have a valid active floor
-    return null; // We're outside now, so the building is null
-  }
-
-  @Override
-  public void goToFloor(int floorNum) {
-    if (getElevator() == true){
-      throw new RuntimeException("Invalid call to goToFloor. " + this.name + " has an elevator, you must provide parameter. ");
-    }
-    else{
-      if (this.activeFloor == -1) {
-        throw new RuntimeException("You are not inside this Building. Must call enter() before navigating between floors.");
-      }
-      if (floorNum < 1 || floorNum > this.nFloors) {
-          throw new RuntimeException("Invalid floor number. Valid range for this Building is 1-" + this.nFloors +".");
-      }
-      System.out.println("You are now on floor #" + floorNum + " of " + this.name);
-      this.activeFloor = floorNum;
-    } 
-  }
-
-  /** Overloaded goToFloor Method
-    * @param floorNum the number of the floor the user is trying to go to 
-    * @param elevator true or false if house has an elevator
-    */
-  public void goToFloor(int floorNum, boolean elevator) {
-    if (getElevator() == true){
-      if (this.activeFloor == -1) {
-        throw new RuntimeException("You are not inside this Building. Must call enter() before navigating between floors.");
-      }
-      if (floorNum < 1 || floorNum > this.nFloors) {
-        throw new RuntimeException("Invalid floor number. Valid range for this Building is 1-" + this.nFloors +".");
-      }
-      System.out.println("You are now on floor #" + floorNum + " of " + this.name);
-      this.activeFloor = floorNum;
-    }
-    else{
-      throw new RuntimeException("Invalid parameter, " + this.name + " does not have an elevator.");
-    }
-  } 
-
-
-  public void goUp() {
-    this.goToFloor(this.activeFloor + 1);
-  }
+  /* Navigation methods: goToFloor(n), goToFloor(n, b), goUp() and goDown() are inherited from
+   * Building and checked against the FloorAccessPolicy installed by the constructor */
 
   /**Overloaded goUp Method
    * @param floorNum the number of the floor the user is trying to go to
    */
   public void goUp(int floorNum) {
-    if (getElevator() == true){
-      int difference =  floorNum - this.activeFloor;
-      this.goToFloor(this.activeFloor + difference, getElevator());
-    }
-    else {
-      throw new RuntimeException("Invalid parameter, " + this.name + " does not have an elevator.");
-    }
-      
-  }
-
-  public void goDown() {
-    this.goToFloor(this.activeFloor - 1);
+    this.goToFloor(floorNum, true);
   }
 
   /** Overloaded goDown Method
     * @param floorNum the number of the floor the user is trying to go to 
     */
-    public void goDown(int floorNum) {
-    if (getElevator() == true){
-      int difference= this.activeFloor - floorNum;
-      this.goToFloor(this.activeFloor - difference, getElevator());
-    }
-    else{
-      throw new RuntimeException("Invalid parameter, " + this.name + " does not have an elevator.");
-    }
+  public void goDown(int floorNum) {
+    this.goToFloor(floorNum, true);
   }
 
 
@@ -237,14 +359,13 @@ public class Library extends Building{
     System.out.println("Title \t\t\t" + "Status");
     System.out.println("-------------------------------------");
 
-    /* Call entrySet method to return a Set of elements in collection. Use forEach method to 
-     * print out title and availability status for each element.
+    /* Use forEach method to print out title and availability status for each element.
      * Reference for this function: https://www.javacodeexamples.com/print-hashtable-in-java-example/3154
      */
-    collection.entrySet().forEach( entry -> 
-                                    {System.out.print(entry.getKey() + "\t\t\t"); //Print title
+    collection.forEach( (title, available) -> 
+                                    {System.out.print(title + "\t\t\t"); //Print title
                                       //If value is true, print "Available"
-                                      if(entry.getValue() == true){
+                                      if(available == true){
                                         System.out.println("Available");
                                       }
                                       //If value is not true, print "Not avalibale"
@@ -281,6 +402,13 @@ public class Library extends Building{
     //Try to check out Little Women again
     myLibrary.checkOut("Little Women");
 
+    //Borrow Macbeth for a week, then let the clock run past the due day
+    myLibrary.checkOut("Macbeth", "Grace", 7);
+    myLibrary.advanceDays(5);
+    myLibrary.advanceDays(3);
+    System.out.println(myLibrary.overdueLoans().size() + " overdue loan(s) on day " + myLibrary.getToday());
+    myLibrary.returnBook("Macbeth");
+
     System.out.println("-----------------------------------");
     System.out.println("Demonstrating enter/exit/navigation");
     System.out.println("-----------------------------------");
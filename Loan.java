@@ -0,0 +1,70 @@
+/** A single checked-out book: who has it and when it is due back. A Loan is also the timer that
+ * the Library's TimingWheel fires for its reminder and overdue notices, so tracking a loan costs
+ * one small object and nothing else.
+ */
+public class Loan extends TimingWheel.Timer {
+
+    /** The title that was checked out */
+    private final String title;
+    /** The person who checked it out */
+    private final String borrower;
+    /** Last day the book may be returned without being overdue */
+    private long dueDay;
+    /** True once the reminder notice has fired (or was skipped because the loan was too short) */
+    boolean reminded;
+    /** True once the overdue notice has fired */
+    boolean overdue;
+
+    /** Constructor
+     * @param title the title that was checked out
+     * @param borrower the person who checked it out
+     * @param dueDay last day the book may be returned without being overdue
+     */
+    public Loan(String title, String borrower, long dueDay) {
+        this.title = title;
+        this.borrower = borrower;
+        this.dueDay = dueDay;
+    }
+
+    /** Accessor for title
+     * @return the title that was checked out
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /** Accessor for borrower
+     * @return the person who checked out the book
+     */
+    public String getBorrower() {
+        return borrower;
+    }
+
+    /** Accessor for dueDay
+     * @return last day the book may be returned without being overdue
+     */
+    public long getDueDay() {
+        return dueDay;
+    }
+
+    /** Pushes the due date back and re-arms the notices
+     * @param days number of days to add
+     */
+    void extend(int days) {
+        dueDay += days;
+        reminded = false;
+        overdue = false;
+    }
+
+    /** Accessor for overdue
+     * @return true if the book is past its due day and has not been returned
+     */
+    public boolean isOverdue() {
+        return overdue;
+    }
+
+    public String toString() {
+        return title + " (borrowed by " + borrower + ", due day " + dueDay + ")";
+    }
+
+}
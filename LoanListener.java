@@ -0,0 +1,18 @@
+/** Receives the notices a Library sends about its loans as its clock moves forward.
+ * Install one with Library.setLoanListener(); by default notices are printed.
+ */
+public interface LoanListener {
+
+    /** Called a few days before a loan is due
+     * @param library the library the book belongs to
+     * @param loan the loan that is about to be due
+     */
+    void reminder(Library library, Loan loan);
+
+    /** Called the day after a loan was due, if the book has not been returned or renewed
+     * @param library the library the book belongs to
+     * @param loan the loan that is now overdue
+     */
+    void overdue(Library library, Loan loan);
+
+}
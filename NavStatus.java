@@ -0,0 +1,28 @@
+/** Result of a non-throwing navigation call such as Building.tryGoToFloor(n). The constants are
+ * shared singletons, so a failed move returns without allocating or capturing a stack trace.
+ * The throwing methods (enter(), exit(), goToFloor(n), ...) turn anything other than OK into a
+ * RuntimeException via Building.navigationError().
+ */
+public enum NavStatus {
+    /** The move succeeded */
+    OK,
+    /** enter() was called while already inside */
+    ALREADY_INSIDE,
+    /** exit() or a floor change was attempted from outside the building */
+    NOT_INSIDE,
+    /** The requested floor is outside 1..nFloors */
+    INVALID_FLOOR,
+    /** exit() was attempted from above the ground floor */
+    FELL_OUT_WINDOW,
+    /** The building has an elevator, so goToFloor(n, true) must be used instead of goToFloor(n) */
+    HAS_ELEVATOR,
+    /** goToFloor(n, true) was used in a building without an elevator */
+    NO_ELEVATOR,
+    /** The floor exists but the visitor's role is not allowed on it */
+    ACCESS_DENIED;
+
+    /** @return true if the move succeeded */
+    public boolean isOk() {
+        return this == OK;
+    }
+}
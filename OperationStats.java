@@ -0,0 +1,149 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/** Call count and latency histogram for one kind of operation (e.g. enter() on one Building).
+ * Latencies are kept in HDR-style buckets: every power of two is split into 4 sub-buckets,
+ * so a reported percentile is within 25% of the true value. Each bucket is a striped
+ * LongAdder, which means recording a sample never allocates or blocks.
+ */
+public class OperationStats {
+
+    /** Number of sub-buckets per power of two (must be a power of two itself) */
+    private static final int SUB_BUCKETS = 4;
+    /** log2 of SUB_BUCKETS */
+    private static final int SUB_BITS = 2;
+    /** Largest power of two tracked separately; anything slower lands in the last bucket (~18 minutes) */
+    private static final int MAX_EXPONENT = 40;
+    /** Total number of latency buckets, including the overflow bucket at the end */
+    public static final int N_BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS + 1;
+
+    /** Number of samples recorded */
+    private final LongAdder count = new LongAdder();
+    /** Number of calls counted without a latency sample (see increment()) */
+    private final LongAdder untimed = new LongAdder();
+    /** Sum of all recorded latencies in nanoseconds */
+    private final LongAdder totalNanos = new LongAdder();
+    /** Latency histogram, indexed by bucketOf(nanos) */
+    private final LongAdder[] buckets = new LongAdder[N_BUCKETS];
+
+    /** Constructor creates every bucket up front so that record() never allocates */
+    public OperationStats() {
+        for (int i = 0; i < N_BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /** Records one sample
+     * @param nanos how long the operation took, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0; // nanoTime() is monotonic, but a sample can straddle a reset()/toggle
+        }
+        count.increment();
+        totalNanos.add(nanos);
+        buckets[bucketOf(nanos)].increment();
+    }
+
+    /** Counts one call without timing it, for paths so cheap that reading the clock would dominate
+     */
+    public void increment() {
+        untimed.increment();
+    }
+
+    /** Accessor for the number of calls, timed or not
+     * @return number of samples plus number of untimed calls
+     */
+    public long getCount() {
+        return count.sum() + untimed.sum();
+    }
+
+    /** Accessor for the number of samples recorded, i.e. the calls that getTotalNanos() covers
+     * @return number of samples
+     */
+    public long getTimedCount() {
+        return count.sum();
+    }
+
+    /** Accessor for the total time spent in this operation
+     * @return sum of all samples in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /** Adds this operation's bucket counts into an existing histogram, e.g. to aggregate buildings
+     * @param histogram an array of length N_BUCKETS to add into
+     */
+    public void addTo(long[] histogram) {
+        for (int i = 0; i < N_BUCKETS; i++) {
+            histogram[i] += buckets[i].sum();
+        }
+    }
+
+    /** Clears all counters */
+    public void reset() {
+        count.reset();
+        untimed.reset();
+        totalNanos.reset();
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+    }
+
+    /** Maps a latency to its bucket index
+     * @param nanos a non-negative latency
+     * @return index into the histogram
+     */
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos; // 0-3ns get one bucket each
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent >= MAX_EXPONENT) {
+            return N_BUCKETS - 1;
+        }
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Returns the largest latency that falls into a bucket
+     * @param bucket index into the histogram
+     * @return upper bound of the bucket in nanoseconds
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        if (bucket == N_BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    /** Finds the latency below which a given fraction of samples fall
+     * @param histogram bucket counts, as filled in by addTo()
+     * @param percentile a value between 0 and 100, e.g. 99.0
+     * @return upper bound of the bucket containing the percentile, or 0 if there are no samples
+     */
+    static long percentileOf(long[] histogram, double percentile) {
+        long total = 0;
+        for (long n : histogram) {
+            total += n;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * (percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= Math.max(rank, 1)) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(histogram.length - 1);
+    }
+
+}
@@ -0,0 +1,209 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/** Index of who lives where on one CampusMap. Every House on the map updates it as people move
+ * in and out, so "which house does this student live in" is a single hash lookup instead of a
+ * scan over every House's resident list.
+ *
+ * Each CampusMap owns one directory and attaches its houses to it as they are added, the same
+ * way it handles its CampusTotals; removing a House from the map takes its residents out of the
+ * directory again. All changes go through this class while holding its lock, and a House's own
+ * resident list is changed under the same lock, so the directory and the houses never disagree.
+ * A House is on at most one map, so it is in at most one directory.
+ * A student lives in at most one house on a map at a time.
+ */
+public class ResidentDirectory {
+
+    /** Where one student lives */
+    public static class Residence {
+        /** The house the student lives in */
+        private final House house;
+        /** The student's room, or null if it is not known */
+        private final String room;
+
+        /** Constructor
+         * @param house the house the student lives in
+         * @param room the student's room, or null if it is not known
+         */
+        public Residence(House house, String room) {
+            this.house = house;
+            this.room = room;
+        }
+
+        /** @return the house the student lives in */
+        public House getHouse() {
+            return house;
+        }
+
+        /** @return the student's room, or null if it is not known */
+        public String getRoom() {
+            return room;
+        }
+
+        public String toString() {
+            return house.getName() + (room == null ? "" : ", room " + room);
+        }
+    }
+
+    /** House of each student, keyed by name; rooms are kept by the houses themselves */
+    private final HashMap<String, House> houses = new HashMap<String, House>();
+
+    /** Default constructor, creates an empty directory (see CampusMap.getDirectory()) */
+    public ResidentDirectory() {
+    }
+
+    /** Looks up where a student lives
+     * @param name the student's name
+     * @return the student's residence, or null if they don't live in any House on the map
+     */
+    public synchronized Residence lookup(String name) {
+        House house = houses.get(name);
+        return house == null ? null : new Residence(house, house.roomOf(name));
+    }
+
+    /** Looks up which house a student lives in
+     * @param name the student's name
+     * @return the student's House, or null if they don't live in any House on the map
+     */
+    public synchronized House houseOf(String name) {
+        return houses.get(name);
+    }
+
+    /** Accessor for the number of students with a residence
+     * @return number of students in the directory
+     */
+    public synchronized int size() {
+        return houses.size();
+    }
+
+    /** Takes a consistent copy of the whole directory
+     * @return every student's residence at a single point in time
+     */
+    public synchronized Map<String, Residence> snapshot() {
+        HashMap<String, Residence> copy = new HashMap<String, Residence>();
+        for (Map.Entry<String, House> entry : houses.entrySet()) {
+            copy.put(entry.getKey(), new Residence(entry.getValue(), entry.getValue().roomOf(entry.getKey())));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /** Adds a house and all its residents; called by CampusMap when the house joins the map. A
+     * house can only be on one map at a time, so it must not be in any directory yet. The
+     * house's lock is held too while its residents are copied, so a student moving in at the
+     * same moment is either copied here or goes through this directory.
+     * @param house the house to add
+     * @throws RuntimeException if the house is already on a map, or one of its residents already
+     *         lives in a House on this map (nothing is changed)
+     */
+    synchronized void attach(House house) {
+        synchronized (house) {
+            ResidentDirectory previous = house.getDirectory();
+            if (previous != null) {
+                throw new RuntimeException(house.getName() + " is already on " + (previous == this ? "this" : "another")
+                                           + " map. It was not added.");
+            }
+            List<String> arriving = house.getResidents();
+            HashSet<String> seen = new HashSet<String>();
+            for (String name : arriving) {
+                House current = houses.get(name);
+                if (current != null || !seen.add(name)) {
+                    throw new RuntimeException(name + " already lives in " + (current == null ? house : current).getName()
+                                               + ". " + house.getName() + " was not added.");
+                }
+            }
+            for (String name : arriving) {
+                houses.put(name, house);
+            }
+            house.setDirectory(this);
+        }
+    }
+
+    /** Removes a house and all its residents; called by CampusMap when the house leaves the map.
+     * The residents still live in the house, they are just no longer listed here.
+     * @param house the house to remove
+     */
+    synchronized void detach(House house) {
+        synchronized (house) {
+            if (house.getDirectory() != this) {
+                return;
+            }
+            for (String name : house.getResidents()) {
+                houses.remove(name, house);
+            }
+            house.setDirectory(null);
+        }
+    }
+
+    /** Records a student moving into a house and adds them to the house's resident list
+     * @param house the house being moved into, which must be in this directory
+     * @param name the student's name
+     * @param room the student's room, or null if it is not known
+     * @return false if the student already lives in a House on the map (nothing is changed)
+     */
+    synchronized boolean moveIn(House house, String name, String room) {
+        checkListed(house);
+        if (houses.containsKey(name)) {
+            return false;
+        }
+        houses.put(name, house);
+        house.addResident(name, room);
+        return true;
+    }
+
+    /** Records a student moving out of a house and removes them from the house's resident list
+     * @param house the house being moved out of, which must be in this directory
+     * @param name the student's name
+     * @return false if the student does not live in that house (nothing is changed)
+     */
+    synchronized boolean moveOut(House house, String name) {
+        checkListed(house);
+        if (houses.get(name) != house) {
+            return false;
+        }
+        houses.remove(name);
+        house.removeResident(name);
+        return true;
+    }
+
+    /** Moves a group of students from one house to another in one step: either all of them
+     * move or, if any of them does not live in the first house, none do. Their rooms in the new
+     * house are not known yet, so they are recorded without one. Both houses must be on the map
+     * this directory belongs to. Transferring students to the house they already live in
+     * changes nothing.
+     * @param from the house they are leaving
+     * @param to the house they are moving into
+     * @param names the students moving, each named once
+     */
+    public synchronized void transfer(House from, House to, Collection<String> names) {
+        checkListed(from);
+        checkListed(to);
+        HashSet<String> seen = new HashSet<String>();
+        for (String name : names) {
+            if (!seen.add(name)) {
+                throw new RuntimeException(name + " is listed twice. Nobody was moved.");
+            }
+            if (houses.get(name) != from) {
+                throw new RuntimeException(name + " is not a resident of " + from.getName() + ". Nobody was moved.");
+            }
+        }
+        if (from == to) {
+            return;
+        }
+        for (String name : names) {
+            from.removeResident(name);
+            to.addResident(name, null);
+            houses.put(name, to);
+        }
+    }
+
+    private void checkListed(House house) {
+        if (house.getDirectory() != this) {
+            throw new RuntimeException(house.getName() + " is not on the map this directory belongs to.");
+        }
+    }
+
+}
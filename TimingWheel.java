@@ -0,0 +1,246 @@
+import java.util.Random;
+
+/** A hierarchical timing wheel: schedules timers against a discrete clock (e.g. days) and fires
+ * them when the clock reaches their expiry. Scheduling, cancelling and firing are all O(1)
+ * amortized, whatever the number of outstanding timers.
+ *
+ * There are LEVELS wheels of 64 slots each. Level 0 holds timers due within the next 64 ticks,
+ * level 1 those due within 64^2 ticks, and so on; when the clock crosses a slot boundary on a
+ * higher level, that slot's timers are re-placed onto lower levels ("cascaded"). Timers are
+ * intrusive doubly-linked list nodes, so the wheel allocates nothing per timer beyond the timer
+ * object itself, and cancelling one is just an unlink.
+ */
+public class TimingWheel {
+
+    /** A schedulable node. Extend it to attach data (see Loan). A timer belongs to at most one wheel. */
+    public static class Timer {
+        /** Tick at which the timer fires */
+        long expiry;
+        /** Neighbours in the slot list; next is null when the timer is not scheduled */
+        Timer prev;
+        Timer next;
+
+        /** @return true if the timer is waiting to fire */
+        public boolean isScheduled() {
+            return next != null;
+        }
+
+        /** @return the tick at which the timer fires */
+        public long getExpiry() {
+            return expiry;
+        }
+    }
+
+    /** Callback for expired timers */
+    public interface Handler {
+        /** Called once for every timer that expires. The timer is already unscheduled, so the
+         * handler may schedule it again.
+         * @param timer the timer that expired
+         * @param now the current tick
+         */
+        void expired(Timer timer, long now);
+    }
+
+    /** Bits of the clock covered by one level */
+    private static final int BITS = 6;
+    /** Slots per level */
+    private static final int SLOTS = 1 << BITS;
+    /** Mask for a slot index */
+    private static final int MASK = SLOTS - 1;
+    /** Number of levels; timers further out than 64^LEVELS ticks wait in the top level */
+    private static final int LEVELS = 5;
+
+    /** Sentinel head of each slot's circular list, indexed by level * SLOTS + slot; created on
+     * first use, since most wheels (e.g. a library with few loans) only ever touch a few slots */
+    private final Timer[] slots = new Timer[LEVELS * SLOTS];
+    /** Receives expired timers */
+    private final Handler handler;
+    /** The current tick */
+    private long now;
+    /** Number of scheduled timers */
+    private int size;
+
+    /** Constructor
+     * @param start the tick the clock starts at
+     * @param handler receives expired timers
+     */
+    public TimingWheel(long start, Handler handler) {
+        this.now = start;
+        this.handler = handler;
+    }
+
+    /** Accessor for the current tick
+     * @return the current tick
+     */
+    public long getNow() {
+        return now;
+    }
+
+    /** Accessor for the number of scheduled timers
+     * @return number of timers waiting to fire
+     */
+    public int size() {
+        return size;
+    }
+
+    /** Schedules (or reschedules) a timer
+     * @param timer the timer to schedule; if already scheduled it is moved
+     * @param expiry the tick at which it fires; anything not in the future fires on the next tick
+     */
+    public void schedule(Timer timer, long expiry) {
+        if (timer.next != null) {
+            cancel(timer);
+        }
+        timer.expiry = Math.max(expiry, now + 1);
+        place(timer);
+        size++;
+    }
+
+    /** Cancels a timer
+     * @param timer the timer to cancel
+     * @return true if the timer was scheduled, false if there was nothing to cancel
+     */
+    public boolean cancel(Timer timer) {
+        if (timer.next == null) {
+            return false;
+        }
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /** Moves the clock forward, firing every timer that expires on the way
+     * @param time the tick to advance to
+     */
+    public void advanceTo(long time) {
+        while (now < time) {
+            if (size == 0) {
+                now = time; // Nothing to fire, so skip straight there
+                return;
+            }
+            now++;
+            // Cascade from the top down, so timers dropped into a lower slot that is
+            // also on a boundary this tick are cascaded again before level 0 fires
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((now & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level);
+                }
+            }
+            fire();
+        }
+    }
+
+    /** Links a timer into the slot matching its expiry */
+    private void place(Timer timer) {
+        long diff = timer.expiry ^ now;
+        int level = 0;
+        while (level < LEVELS - 1 && (diff >>> (BITS * (level + 1))) != 0) {
+            level++;
+        }
+        int slot = (int) (timer.expiry >>> (BITS * level)) & MASK;
+        Timer head = head(level * SLOTS + slot);
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+    }
+
+    /** Returns the sentinel head of a slot, creating it if the slot was never used */
+    private Timer head(int index) {
+        Timer head = slots[index];
+        if (head == null) {
+            head = new Timer();
+            head.prev = head;
+            head.next = head;
+            slots[index] = head;
+        }
+        return head;
+    }
+
+    /** Removes a timer from its slot list */
+    private static void unlink(Timer timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    /** Detaches the whole list of a slot, leaving the slot empty
+     * @return the first timer of the old list, or the head itself if the slot was empty
+     */
+    private static Timer detach(Timer head) {
+        Timer first = head.next;
+        head.prev.next = head; // Old tail now points back at the (reset) head, which ends the walk
+        head.next = head;
+        head.prev = head;
+        return first;
+    }
+
+    /** Re-places the timers of the current slot of a level onto lower levels */
+    private void cascade(int level) {
+        Timer head = slots[level * SLOTS + ((int) (now >>> (BITS * level)) & MASK)];
+        if (head == null) {
+            return;
+        }
+        Timer timer = detach(head);
+        while (timer != head) {
+            Timer next = timer.next;
+            place(timer);
+            timer = next;
+        }
+    }
+
+    /** Fires every timer in the current level-0 slot */
+    private void fire() {
+        Timer head = slots[(int) now & MASK];
+        if (head == null) {
+            return;
+        }
+        Timer timer = detach(head);
+        while (timer != head) {
+            Timer next = timer.next;
+            timer.prev = null;
+            timer.next = null;
+            size--;
+            handler.expired(timer, now);
+            timer = next;
+        }
+    }
+
+    /** Benchmark of timer churn: schedules, reschedules, cancels and fires a large number of
+     * timers spread over a few months of ticks, the way library loans would be
+     * @param args optionally, the number of timers (default 1,000,000)
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long[] fired = new long[1];
+        TimingWheel wheel = new TimingWheel(0, (timer, now) -> fired[0]++);
+        Timer[] timers = new Timer[n];
+        for (int i = 0; i < n; i++) {
+            timers[i] = new Timer();
+        }
+        Random random = new Random(42);
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                wheel.schedule(timers[i], wheel.getNow() + 1 + random.nextInt(90));
+            }
+            long scheduled = System.nanoTime();
+            for (int i = 0; i < n; i += 2) {
+                wheel.schedule(timers[i], timers[i].getExpiry() + 14); // Renewal
+            }
+            for (int i = 1; i < n; i += 4) {
+                wheel.cancel(timers[i]); // Early return
+            }
+            long churned = System.nanoTime();
+            wheel.advanceTo(wheel.getNow() + 120);
+            long advanced = System.nanoTime();
+            System.out.printf("round %d: schedule %.1f ns/timer, renew+cancel %.1f ns/op, advance %.1f ms (%d fired, %d left)%n",
+                              round, (scheduled - start) / (double) n, (churned - scheduled) / (n * 0.75),
+                              (advanced - churned) / 1e6, fired[0], wheel.size());
+            fired[0] = 0;
+        }
+    }
+
+}